@@ -0,0 +1,209 @@
+/**
+ * File: Batch.java
+ *
+ * Batch driver for running the MyPL Parser over many files in one
+ * JVM. Arguments are files, directories (searched recursively for
+ * .mypl files) or glob patterns (e.g. 'tests/**.mypl'). Files are
+ * parsed concurrently on virtual threads, with at most -j files in
+ * flight at once (default: the number of processors). Each file is
+ * reported as it finishes, followed by a summary. With -cache, results
+ * are cached by file content in the given directory (see ParseCache),
+ * so unchanged files are not parsed again on later runs.
+ *
+ * Usage: java Batch [-j N] [-cache DIR] path ...
+ * Exit code: 0 if every file parsed, 1 if any did not, 2 on bad usage.
+ */
+
+import java.io.*;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+public class Batch {
+
+  private static final int CACHE_ENTRIES = 65536;
+
+  private final Semaphore permits;
+  private final AtomicInteger passed = new AtomicInteger();
+  private final AtomicInteger failed = new AtomicInteger();
+  private final PrintStream out;
+  private ParseCache cache;
+
+  public Batch(int parallelism, PrintStream out) {
+    this.permits = new Semaphore(parallelism);
+    this.out = out;
+  }
+
+  /**
+   * Looks up and records the result of each file in the given cache.
+   */
+  public void setCache(ParseCache cache) {
+    this.cache = cache;
+  }
+
+  public static void main(String[] args) {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    Path cacheDir = null;
+    List<String> patterns = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i].equals("-j") && i + 1 < args.length)
+        parallelism = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-cache") && i + 1 < args.length)
+        cacheDir = Paths.get(args[++i]);
+      else
+        patterns.add(args[i]);
+    }
+    if (patterns.isEmpty() || parallelism < 1) {
+      System.out.println("usage: java Batch [-j N] [-cache DIR] path ...");
+      System.exit(2);
+    }
+    try {
+      List<Path> files = expand(patterns);
+      Batch batch = new Batch(parallelism, System.out);
+      if (cacheDir != null)
+        batch.setCache(new ParseCache(CACHE_ENTRIES, cacheDir));
+      batch.run(files);
+      System.exit(batch.passed() == files.size() ? 0 : 1);
+    } catch (IOException e) {
+      System.out.println("Unable to list files: " + e.getMessage());
+      System.exit(2);
+    }
+  }
+
+  /**
+   * Parses the given files and prints the result of each plus a
+   * summary line.
+   */
+  public void run(List<Path> files) {
+    long start = System.nanoTime();
+    try (ExecutorService executor =
+           Executors.newVirtualThreadPerTaskExecutor()) {
+      for (Path file : files)
+        executor.submit(() -> check(file));
+    }
+    long millis = (System.nanoTime() - start) / 1000000;
+    out.println(files.size() + " files, " + passed() + " passed, "
+                + failed() + " failed (" + millis + " ms)");
+    if (cache != null)
+      out.println("cache: " + cache.hits() + " hits, " + cache.diskHits()
+                  + " disk hits, " + cache.misses() + " misses");
+  }
+
+  public int passed() {
+    return passed.get();
+  }
+
+  public int failed() {
+    return failed.get();
+  }
+
+
+  /* Helper Functions */
+
+  // parses one file, holding a permit while doing so; anything the
+  // parse throws (e.g. a StackOverflowError) fails the file, since the
+  // executor's futures are never read
+  private void check(Path file) {
+    String error = null;
+    permits.acquireUninterruptibly();
+    try {
+      if (cache != null)
+        cache.parse(file);
+      else
+        parse(file);
+    } catch (MyPLException e) {
+      error = e.toString();
+    } catch (IOException e) {
+      error = "Unable to open file '" + file + "'";
+    } catch (Throwable e) {
+      error = e.getClass().getName()
+        + (e.getMessage() == null ? "" : ": " + e.getMessage());
+    } finally {
+      permits.release();
+    }
+    if (error == null) {
+      passed.incrementAndGet();
+      report("PASS " + file);
+    }
+    else {
+      failed.incrementAndGet();
+      report("FAIL " + file + ": " + error);
+    }
+  }
+
+  // malformed UTF-8 is decoded as replacement characters, as by
+  // Lexer.open and ParseCache, so a run gives the same results with
+  // and without a cache; the file is streamed rather than mapped, so
+  // that many files do not pile up mappings only released on GC
+  private static void parse(Path file) throws IOException, MyPLException {
+    Reader decoded = new InputStreamReader(
+      Files.newInputStream(file),
+      StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    try (Reader reader = new BufferedReader(decoded)) {
+      new Parser(new Lexer(reader)).parse();
+    }
+  }
+
+  private void report(String line) {
+    synchronized (out) {
+      out.println(line);
+    }
+  }
+
+  // the files named by the given files, directories and globs, in
+  // argument order
+  static List<Path> expand(List<String> patterns) throws IOException {
+    List<Path> files = new ArrayList<>();
+    for (String pattern : patterns) {
+      int glob = firstGlobChar(pattern);
+      if (glob < 0) {
+        Path path = Paths.get(pattern);
+        if (Files.isDirectory(path))
+          walk(path, path.getFileSystem().getPathMatcher("glob:**.mypl"),
+               files);
+        else
+          files.add(path);
+        continue;
+      }
+      // walk from the directory before the first glob character and
+      // match the full pattern
+      int slash = pattern.lastIndexOf('/', glob);
+      Path base = Paths.get(slash < 0 ? "." : pattern.substring(0, slash + 1));
+      String rest = slash < 0 ? pattern : pattern.substring(slash + 1);
+      PathMatcher matcher =
+        base.getFileSystem().getPathMatcher("glob:" + rest);
+      List<Path> found = new ArrayList<>();
+      try (java.util.stream.Stream<Path> paths = Files.walk(base)) {
+        paths.filter(p -> Files.isRegularFile(p)
+                     && matcher.matches(base.relativize(p)))
+          .sorted()
+          .forEach(found::add);
+      }
+      files.addAll(found);
+    }
+    return files;
+  }
+
+  private static void walk(Path dir, PathMatcher matcher, List<Path> files)
+    throws IOException
+  {
+    try (java.util.stream.Stream<Path> paths = Files.walk(dir)) {
+      paths.filter(p -> Files.isRegularFile(p) && matcher.matches(p))
+        .sorted()
+        .forEach(files::add);
+    }
+  }
+
+  private static int firstGlobChar(String pattern) {
+    for (int i = 0; i < pattern.length(); ++i)
+      if ("*?[{".indexOf(pattern.charAt(i)) >= 0)
+        return i;
+    return -1;
+  }
+}
@@ -0,0 +1,296 @@
+/**
+ * File: Bench.java
+ *
+ * Benchmarks for the Lexer and Parser hot paths, runnable with a plain
+ * JDK (javac *.java && java Bench). Each benchmark runs on generated
+ * inputs shaped like the p1-p7 samples, and on any files given:
+ *
+ *   samples     a mix of the constructs in p1-p7
+ *   nested-if   deep if/elif/else nesting, as in p4
+ *   bool-chain  long and/or/not chains
+ *   paths       dotted paths such as x.y1.z
+ *
+ * and measures lexing with Lexer.nextToken() and with a ByteLexer over
+ * the UTF-8 bytes, lexing into a TokenBuffer, Parser.parse() over a
+ * Lexer (the full pipeline), a PipelinedLexer and a ByteLexer, and the
+ * Parser and TableParser over an already lexed TokenBuffer. Each
+ * benchmark is warmed up first, then timed over several iterations;
+ * the median is reported as tokens/sec and MB/sec of UTF-8 input,
+ * with the bytes allocated per token by the benchmark thread (the
+ * same count a GC profiler reports).
+ *
+ * Usage: java Bench [-w warmup-ms] [-i iterations] [-n input-kb] [file ...]
+ */
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+
+public class Bench {
+
+  private static final String[] NAMES =
+    {"lex", "lex-bytes", "lex-buffer", "parse", "parse-pipelined",
+     "parse-bytes", "parse-buffer", "table-buffer"};
+
+  private static long sink;     // keeps results live
+
+  private final long warmupMillis;
+  private final int iterations;
+  private final PrintStream out;
+  private final com.sun.management.ThreadMXBean threads;
+
+  public Bench(long warmupMillis, int iterations, PrintStream out) {
+    this.warmupMillis = warmupMillis;
+    this.iterations = iterations;
+    this.out = out;
+    java.lang.management.ThreadMXBean bean =
+      ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean
+        && ((com.sun.management.ThreadMXBean)bean)
+             .isThreadAllocatedMemorySupported())
+      threads = (com.sun.management.ThreadMXBean)bean;
+    else
+      threads = null;
+  }
+
+  public static void main(String[] args) {
+    long warmup = 2000;
+    int iterations = 10;
+    int kilobytes = 2048;
+    List<String> files = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i].equals("-w") && i + 1 < args.length)
+        warmup = Long.parseLong(args[++i]);
+      else if (args[i].equals("-i") && i + 1 < args.length)
+        iterations = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-n") && i + 1 < args.length)
+        kilobytes = Integer.parseInt(args[++i]);
+      else
+        files.add(args[i]);
+    }
+    if (iterations < 1 || kilobytes < 1) {
+      System.out.println("usage: java Bench [-w warmup-ms] [-i iterations]"
+                         + " [-n input-kb] [file ...]");
+      System.exit(2);
+    }
+    Map<String, String> inputs = new LinkedHashMap<>();
+    int size = kilobytes * 1024;
+    inputs.put("samples", repeat(Bench::samples, size));
+    inputs.put("nested-if", repeat(Bench::nestedIf, size));
+    inputs.put("bool-chain", repeat(Bench::boolChain, size));
+    inputs.put("paths", repeat(Bench::paths, size));
+    try {
+      for (String file : files)
+        inputs.put(file, new String(Files.readAllBytes(Paths.get(file)),
+                                    StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      System.out.println("Unable to read file: " + e.getMessage());
+      System.exit(2);
+    }
+    Bench bench = new Bench(warmup, iterations, System.out);
+    bench.header();
+    for (Map.Entry<String, String> input : inputs.entrySet())
+      bench.run(input.getKey(), input.getValue());
+  }
+
+  /**
+   * Runs every benchmark on the given source text and prints one line
+   * per benchmark.
+   */
+  public void run(String name, String source) {
+    char[] text = source.toCharArray();
+    byte[] utf8 = source.getBytes(StandardCharsets.UTF_8);
+    int bytes = utf8.length;
+    TokenBuffer tokens = TokenBuffer.lex(text, text.length);
+    if (tokens.error() != null) {
+      out.println(name + ": " + tokens.error());
+      return;
+    }
+    try {
+      new Parser(tokens).parse();
+    } catch (MyPLException e) {
+      // still worth timing, but the numbers cover only part of it
+      out.println(name + ": " + e);
+    }
+    int count = tokens.size();
+    for (String benchmark : NAMES) {
+      Result r = measure(benchmark, text, utf8, tokens);
+      out.printf("%-12s %-15s %9.1f %9.1f %9.2f %10.1f%n", name, benchmark,
+                 count / r.seconds / 1e6, bytes / r.seconds / 1e6,
+                 r.seconds * 1e3, r.allocated / (double)count);
+    }
+  }
+
+  public void header() {
+    out.printf("%-12s %-15s %9s %9s %9s %10s%n", "input", "benchmark",
+               "Mtok/s", "MB/s", "ms/op", "B/token");
+  }
+
+
+  /* Helper Functions */
+
+  // the median time and the allocation of one run of the benchmark
+  private static class Result {
+    double seconds;
+    long allocated;
+  }
+
+  private Result measure(String benchmark, char[] text, byte[] utf8,
+                         TokenBuffer tokens) {
+    long until = System.nanoTime() + warmupMillis * 1000000;
+    do {
+      once(benchmark, text, utf8, tokens);
+    } while (System.nanoTime() < until);
+    long[] times = new long[iterations];
+    long allocated = 0;
+    for (int i = 0; i < iterations; ++i) {
+      long bytes = allocatedBytes();
+      long start = System.nanoTime();
+      once(benchmark, text, utf8, tokens);
+      times[i] = System.nanoTime() - start;
+      allocated += allocatedBytes() - bytes;
+    }
+    Arrays.sort(times);
+    Result r = new Result();
+    r.seconds = times[iterations / 2] / 1e9;
+    r.allocated = allocated / iterations;
+    return r;
+  }
+
+  private long allocatedBytes() {
+    return threads == null ? 0 : threads.getCurrentThreadAllocatedBytes();
+  }
+
+  // runs the benchmark once
+  private static void once(String benchmark, char[] text, byte[] utf8,
+                           TokenBuffer tokens) {
+    try {
+      switch (benchmark) {
+      case "lex":
+        Lexer lexer = new Lexer(text, text.length);
+        Token t;
+        do {
+          t = lexer.nextToken();
+          sink += t.column();
+        } while (t.type() != TokenType.EOS);
+        break;
+      case "lex-bytes":
+        ByteLexer bytes = new ByteLexer(utf8, utf8.length);
+        Token b;
+        do {
+          b = bytes.nextToken();
+          sink += b.column();
+        } while (b.type() != TokenType.EOS);
+        break;
+      case "lex-buffer":
+        sink += TokenBuffer.lex(text, text.length).size();
+        break;
+      case "parse":
+        new Parser(new Lexer(text, text.length)).parse();
+        break;
+      case "parse-pipelined":
+        try (PipelinedLexer pipelined =
+               new PipelinedLexer(text, text.length)) {
+          new Parser(pipelined).parse();
+        }
+        break;
+      case "parse-bytes":
+        new Parser(new ByteLexer(utf8, utf8.length)).parse();
+        break;
+      case "parse-buffer":
+        new Parser(tokens).parse();
+        break;
+      case "table-buffer":
+        TableParser.parse(tokens);
+        break;
+      }
+    } catch (MyPLException e) {
+      sink += e.line();
+    }
+  }
+
+  private interface Generator {
+    void append(StringBuilder text, int n);
+  }
+
+  // the generator's output for n = 0, 1, ... until the text has at
+  // least size characters
+  private static String repeat(Generator generator, int size) {
+    StringBuilder text = new StringBuilder(size + 4096);
+    for (int n = 0; text.length() < size; ++n)
+      generator.append(text, n);
+    return text.toString();
+  }
+
+  // declarations and statements as in p1-p7
+  private static void samples(StringBuilder text, int n) {
+    text.append("# sample ").append(n).append('\n')
+      .append("type Node").append(n).append('\n')
+      .append("  var int value := ").append(n).append('\n')
+      .append("  var Node").append(n).append(" next := nil\n")
+      .append("end\n")
+      .append("fun int f").append(n).append("(int x, double y, Node")
+      .append(n).append(" z)\n")
+      .append("  var s := \"str\\n\"\n")
+      .append("  var c := 'c'\n")
+      .append("  while x <= 10 and x >= 0 do\n")
+      .append("    print(itos(x))\n")
+      .append("    set x := x + 1 * (y - 2.5) / 3 % 4\n")
+      .append("  end\n")
+      .append("  for i := 1 to x do\n")
+      .append("    set z.value := z.value + i\n")
+      .append("  end\n")
+      .append("  if x = 1 then return neg x elif not x then return 0")
+      .append(" else return new Node").append(n).append(" end\n")
+      .append("end\n")
+      .append("var r := f").append(n).append("(1, 2.0, nil)\n");
+  }
+
+  // if/elif/else blocks nested 40 deep
+  private static void nestedIf(StringBuilder text, int n) {
+    int depth = 40;
+    for (int i = 0; i < depth; ++i) {
+      indent(text, i).append("if x").append(i).append(" > ").append(n)
+        .append(" then\n");
+    }
+    indent(text, depth).append("set y := 1\n");
+    for (int i = depth - 1; i >= 0; --i) {
+      indent(text, i).append("elif x").append(i).append(" < 0 then\n");
+      indent(text, i + 1).append("set y := 2\n");
+      indent(text, i).append("else\n");
+      indent(text, i + 1).append("set y := 3\n");
+      indent(text, i).append("end\n");
+    }
+  }
+
+  // a while condition of 200 terms joined by and, or and not
+  private static void boolChain(StringBuilder text, int n) {
+    text.append("while ");
+    for (int i = 0; i < 200; ++i) {
+      if (i > 0)
+        text.append(i % 3 == 0 ? " or " : " and ");
+      if (i % 5 == 0)
+        text.append("not ");
+      text.append('x').append(i).append(i % 2 == 0 ? " = " : " < ")
+        .append(n);
+    }
+    text.append(" do 1 end\n");
+  }
+
+  // assignments between dotted paths
+  private static void paths(StringBuilder text, int n) {
+    text.append("set x.y1.z").append(n).append(" := a.b.c.d.e")
+      .append(" + f.g1.h.i * x.y2 - x.y1.z.w").append(n).append('\n')
+      .append("var v := node.next.next.next.value\n")
+      .append("while x.y1.z = x.y2 do set p.q.r := p.q.r.s end\n");
+  }
+
+  private static StringBuilder indent(StringBuilder text, int depth) {
+    for (int i = 0; i < depth; ++i)
+      text.append("  ");
+    return text;
+  }
+}
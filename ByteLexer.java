@@ -0,0 +1,533 @@
+/**
+ * File: ByteLexer.java
+ *
+ * A Lexer that scans UTF-8 input as bytes, without first decoding it
+ * into chars. MyPL programs are almost all ASCII, and outside of
+ * literals every token is ASCII, so each byte below 0x80 is classified
+ * through the Lexer's char-class table as is. Only a byte of 0x80 or
+ * more takes the slow path: outside of literals its character is
+ * decoded and classified like any other non-ASCII character; inside a
+ * string or char value the body is validated as UTF-8 and decoded
+ * when the token is made; and comments are skipped without decoding.
+ *
+ * Tokens, lines, columns and errors are the same as those of a Lexer
+ * over the decoded input, except that a string or char value holding
+ * invalid UTF-8 is an error (a Lexer would see replacement characters
+ * instead). Since the Lexer's columns count UTF-16 chars, offset(),
+ * byteColumn() and charColumn() give the exact position of the last
+ * token returned (or of the error last thrown) in bytes and in chars.
+ *
+ * Only nextToken() and the symbol table accessors may be called on a
+ * byte lexer. Mapped files are limited to 2 GB.
+ */
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+
+public class ByteLexer extends Lexer {
+
+  private final ByteBuffer in;  // the input, from index 0 to limit
+  private final byte[] array;   // its backing array, if it has one
+  private final int base;       // offset of the input in array
+  private final int limit;
+  private int pos;              // next unread byte
+  private int mark;             // start of the lexeme being scanned
+  private int width;            // bytes in the character last peeked
+  private int line = 1;
+  private int column;
+  private int lineStart;        // offset of the current line's first byte
+  private int tokenOffset;      // position of the last token (or error)
+  private int tokenLineStart;
+  private int tokenLine;
+  private int tokenColumn;
+  private long tokenValue;
+  private char[] text = new char[64];   // lexeme of the last ID or number
+  private int textLength;
+  private String literal;       // lexeme of the last string or char value
+
+  /**
+   * Create a new byte lexer over the first length bytes of the given
+   * array, which must not change while the lexer is in use.
+   */
+  public ByteLexer(byte[] source, int length) {
+    this(ByteBuffer.wrap(source, 0, length).slice());
+  }
+
+  /**
+   * Create a new byte lexer over the remaining bytes of the given
+   * buffer, which must not change while the lexer is in use.
+   */
+  public ByteLexer(ByteBuffer source) {
+    super(new char[0], 0);
+    this.in = source.slice();
+    this.limit = in.limit();
+    this.array = in.hasArray() ? in.array() : null;
+    this.base = in.hasArray() ? in.arrayOffset() : 0;
+  }
+
+  /**
+   * Create a new byte lexer over the given UTF-8 file through a memory
+   * mapping.
+   */
+  public static ByteLexer open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path,
+                                                StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException("file too large for a byte lexer");
+      return new ByteLexer(
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  @Override
+  public Token nextToken() throws MyPLException {
+    TokenType type = scanToken();
+    String lexeme = fixedLexeme(type);
+    int symbol = -1;
+    if (type == TokenType.ID) {
+      SymbolTable symbols = symbolTable();
+      symbol = symbols.intern(text, 0, textLength);
+      lexeme = symbols.name(symbol);
+    }
+    else if (type == TokenType.INT_VAL || type == TokenType.DOUBLE_VAL) {
+      char[] digits = Arrays.copyOf(text, textLength);
+      return new Token(type, digits, 0, textLength, tokenLine, tokenColumn,
+                       tokenValue);
+    }
+    else if (lexeme == null)
+      lexeme = literal;
+    return new Token(type, lexeme, tokenLine, tokenColumn, symbol);
+  }
+
+  /**
+   * Returns the byte offset in the input of the last token returned,
+   * or of the error last thrown.
+   */
+  public int offset() {
+    return tokenOffset;
+  }
+
+  /**
+   * Returns the column of offset() on its line, counted in bytes from
+   * 1.
+   */
+  public int byteColumn() {
+    return tokenOffset - tokenLineStart + 1;
+  }
+
+  /**
+   * Returns the column of offset() on its line, counted in UTF-16
+   * chars from 1 (as in a String of the line).
+   */
+  public int charColumn() {
+    int chars = 1;
+    for (int i = tokenLineStart; i < tokenOffset; ++i) {
+      int b = byteAt(i) & 0xff;
+      if ((b & 0xc0) != 0x80)
+        chars += b >= 0xf0 ? 2 : 1;
+    }
+    return chars;
+  }
+
+
+  /* Helper Functions */
+
+  // the byte at the given offset, read from the backing array of a
+  // heap buffer directly
+  private byte byteAt(int i) {
+    return array != null ? array[base + i] : in.get(i);
+  }
+
+  // the byte at pos, or -1 at end of input
+  private int peekByte() {
+    return pos < limit ? byteAt(pos) & 0xff : -1;
+  }
+
+  // the character at pos (or -1 at end of input), setting width to its
+  // length in bytes; a supplementary character is returned as its high
+  // surrogate, and a malformed sequence as one replacement character
+  // per byte
+  private int peek() {
+    if (pos >= limit)
+      return -1;
+    int b = byteAt(pos) & 0xff;
+    width = 1;
+    if (b < 0x80)
+      return b;
+    int n = sequenceLength(pos);
+    if (n == 0)
+      return 0xfffd;
+    width = n;
+    if (n == 2)
+      return (b & 0x1f) << 6 | (byteAt(pos + 1) & 0x3f);
+    int c = (b & 0x0f) << 12 | (byteAt(pos + 1) & 0x3f) << 6
+      | (byteAt(pos + 2) & 0x3f);
+    if (n == 3)
+      return c;
+    int code = (b & 0x07) << 18 | (byteAt(pos + 1) & 0x3f) << 12
+      | (byteAt(pos + 2) & 0x3f) << 6 | (byteAt(pos + 3) & 0x3f);
+    return Character.highSurrogate(code);
+  }
+
+  // the length of the well-formed UTF-8 sequence starting with a
+  // non-ASCII byte at the given offset, or 0 if it is malformed
+  private int sequenceLength(int at) {
+    int b = byteAt(at) & 0xff;
+    int n, min;
+    if (b >= 0xc2 && b <= 0xdf) {
+      n = 2;
+      min = 0x80;
+    }
+    else if (b >= 0xe0 && b <= 0xef) {
+      n = 3;
+      min = 0x800;
+    }
+    else if (b >= 0xf0 && b <= 0xf4) {
+      n = 4;
+      min = 0x10000;
+    }
+    else
+      return 0;
+    if (at + n > limit)
+      return 0;
+    int code = b & (0x7f >> n);
+    for (int i = 1; i < n; ++i) {
+      int c = byteAt(at + i) & 0xff;
+      if ((c & 0xc0) != 0x80)
+        return 0;
+      code = code << 6 | (c & 0x3f);
+    }
+    if (code < min || code > Character.MAX_CODE_POINT
+        || (code >= 0xd800 && code <= 0xdfff))
+      return 0;
+    return n;
+  }
+
+  private void error(String msg, int line, int column) throws MyPLException {
+    tokenOffset = pos;
+    tokenLineStart = lineStart;
+    throw new MyPLException("Lexer", msg, line, column);
+  }
+
+  // scans the next token, mirroring Lexer.scan()
+  private TokenType scanToken() throws MyPLException {
+    int ch = skipTrivia();
+    mark = pos;
+    tokenOffset = pos;
+    tokenLineStart = lineStart;
+    if (ch == -1)
+      return accept(TokenType.EOS, line, column);
+    switch (classOf(ch)) {
+    case SINGLE:
+      ++pos;
+      ++column;
+      return accept(SINGLE_TYPE[ch], line, column);
+    case DOT:
+      ++pos;
+      ++column;
+      return accept(TokenType.DOT, line, column);
+    case LESS:
+      return relational(TokenType.LESS_THAN, TokenType.LESS_THAN_EQUAL);
+    case GREATER:
+      return relational(TokenType.GREATER_THAN, TokenType.GREATER_THAN_EQUAL);
+    case BANG:
+      ++pos;
+      ++column;
+      if (peekByte() == '=') {
+        ++pos;
+        ++column;
+        return accept(TokenType.NOT_EQUAL, line, column - 1);
+      }
+      // a lone '!' is not a symbol and ends the stream
+      return accept(TokenType.EOS, line, column);
+    case COLON:
+      ++pos;
+      ++column;
+      if (peekByte() == '=')
+        ++pos;
+      ++column;
+      return accept(TokenType.ASSIGN, line, column - 1);
+    case QUOTE:
+      return charValue();
+    case DQUOTE:
+      return stringValue();
+    case DIGIT:
+      return number();
+    case LETTER:
+      return word();
+    default:
+      // unknown symbols are left in the stream and end it
+      return accept(TokenType.EOS, line, column);
+    }
+  }
+
+  private TokenType accept(TokenType type, int line, int column) {
+    tokenLine = line;
+    tokenColumn = column;
+    return type;
+  }
+
+  // appends a char to the lexeme in text
+  private void append(int c) {
+    if (textLength == text.length)
+      text = Arrays.copyOf(text, textLength * 2);
+    text[textLength++] = (char)c;
+  }
+
+  // the bytes scanned since mark, decoded
+  private String lexeme() {
+    byte[] bytes = new byte[pos - mark];
+    in.get(mark, bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+
+  /* Scanning States */
+
+  // skips whitespace and comments, returning the first character of
+  // the next token (or -1 at end of input)
+  private int skipTrivia() {
+    int ch = peek();
+    while (ch != -1) {
+      if (ch == ' ') {
+        // runs of indentation, without classifying each space
+        do {
+          ++pos;
+          ++column;
+        } while (pos < limit && byteAt(pos) == ' ');
+        ch = peek();
+        continue;
+      }
+      byte cls = classOf(ch);
+      if (cls == NEWLINE) {
+        ++pos;
+        ++line;
+        column = 1;
+        lineStart = pos;
+      }
+      else if (cls == SPACE) {
+        pos += width;
+        ++column;
+      }
+      else if (cls == HASH)
+        comment();
+      else
+        break;
+      ch = peek();
+    }
+    return ch;
+  }
+
+  // skips a comment through the end of its line, byte by byte
+  private void comment() {
+    ++pos;
+    ++column;
+    int b = peekByte();
+    while (b != '\n' && b != -1) {
+      ++pos;
+      b = peekByte();
+    }
+    if (b == '\n') {
+      ++pos;
+      ++line;
+      column = 1;
+      lineStart = pos;
+    }
+  }
+
+  // a relational operator optionally followed by '='
+  private TokenType relational(TokenType single, TokenType equal) {
+    ++pos;
+    ++column;
+    if (peekByte() == '=') {
+      ++pos;
+      ++column;
+      return accept(equal, line, column - 1);
+    }
+    return accept(single, line, column);
+  }
+
+  // a character value, which runs through the next single quote
+  private TokenType charValue() throws MyPLException {
+    ++pos;
+    ++column;
+    mark = pos;
+    boolean ascii = true;
+    int b = peekByte();
+    while (b != '\'') {
+      if (b == -1)
+        error("Bad char need to close char declaration with quote",
+              line, column);
+      if (b >= 0x80) {
+        ascii = false;
+        skipSequence("invalid UTF-8 in char value");
+      }
+      else
+        ++pos;
+      b = peekByte();
+    }
+    literal = body(ascii);
+    ++pos;
+    ++column;
+    return accept(TokenType.CHAR_VAL, line, column - 1);
+  }
+
+  // a string value, which must be closed on the same line
+  private TokenType stringValue() throws MyPLException {
+    ++pos;
+    ++column;
+    int columnStart = column;
+    mark = pos;
+    boolean ascii = true;
+    int b = peekByte();
+    while (b != '"') {
+      if (b == -1) {
+        String msg = "Bad string need to close string declaration with quotes";
+        error(msg, line, column);
+      }
+      if (b == '\n') {
+        String msg = "found newline within string";
+        error(msg, line, column);
+      }
+      if (b >= 0x80) {
+        ascii = false;
+        skipSequence("invalid UTF-8 in string");
+      }
+      else
+        ++pos;
+      b = peekByte();
+    }
+    literal = body(ascii);
+    ++pos;
+    ++column;
+    return accept(TokenType.STRING_VAL, line, columnStart);
+  }
+
+  // skips the UTF-8 sequence at pos inside a literal, which must be
+  // well formed
+  private void skipSequence(String msg) throws MyPLException {
+    int n = sequenceLength(pos);
+    if (n == 0)
+      error(msg, line, column);
+    pos += n;
+  }
+
+  // the body of the literal scanned since mark
+  private String body(boolean ascii) {
+    int length = pos - mark;
+    if (!ascii)
+      return lexeme();
+    if (length > text.length)
+      text = new char[Math.max(length, text.length * 2)];
+    for (int i = 0; i < length; ++i)
+      text[i] = (char)byteAt(mark + i);
+    return new String(text, 0, length);
+  }
+
+  // an int value, or a double value if the digits are followed by '.';
+  // the value is kept in tokenValue and the lexeme in text
+  private TokenType number() throws MyPLException {
+    textLength = 0;
+    long value = 0;
+    int overflow = 0;           // column of the digit that overflowed
+    int ch = peek();
+    while (ch != -1 && classOf(ch) == DIGIT) {
+      pos += width;
+      ++column;
+      append(ch);
+      int digit = digitValue(ch);
+      if (value > (Long.MAX_VALUE - digit) / 10 && overflow == 0)
+        overflow = column;
+      value = value * 10 + digit;
+      ch = peek();
+    }
+    if (ch != -1 && Character.isLetter((char)ch)) {
+      String msg = "unexpected symbol '" + (char)ch + "'";
+      error(msg, line, column);
+    }
+    if (ch == '.') {
+      ++pos;
+      append(ch);
+      ch = peek();
+      if (ch == -1 || classOf(ch) != DIGIT) {
+        String msg = "missing digit in float '" + lexeme() + "'";
+        error(msg, line, column);
+      }
+      while (ch != -1 && classOf(ch) == DIGIT) {
+        pos += width;
+        append(ch);
+        ch = peek();
+      }
+      if (ch != -1 && Character.isLetter((char)ch)) {
+        String msg = "invalid character in " + lexeme();
+        error(msg, line, column);
+      }
+      else if (ch == '.') {
+        String msg = "Too many decimals in number " + lexeme();
+        error(msg, line, column);
+      }
+      tokenValue = Double.doubleToRawLongBits(
+        decodeDouble(text, 0, textLength));
+      return accept(TokenType.DOUBLE_VAL, line, column);
+    }
+    if (text[0] == '0' && textLength > 1) {
+      String msg = "leading zero in " + "'" + lexeme() + "'";
+      error(msg, line, column);
+    }
+    if (overflow != 0) {
+      String msg = "integer out of range '" + lexeme() + "'";
+      error(msg, line, overflow);
+    }
+    tokenValue = value;
+    return accept(TokenType.INT_VAL, line, column);
+  }
+
+  // an identifier or reserved word, with its lexeme kept in text
+  private TokenType word() {
+    textLength = 0;
+    ++column;
+    int columnStart = column;
+    // ASCII letters, digits and underscores, as long as they last
+    int at = pos;
+    int b;
+    while (at < limit && (b = byteAt(at)) >= 0) {
+      byte cls = classOf(b);
+      if (cls != LETTER && cls != DIGIT && cls != UNDERSCORE)
+        break;
+      append(b);
+      ++at;
+    }
+    column += at - pos;
+    pos = at;
+    int ch = peek();
+    while (ch != -1) {
+      byte cls = classOf(ch);
+      if (cls != LETTER && cls != DIGIT && cls != UNDERSCORE)
+        break;
+      pos += width;
+      ++column;
+      append(ch);
+      ch = peek();
+    }
+    int h = keywordHash(text[0], text[textLength - 1], textLength);
+    String keyword = KEYWORDS[h];
+    if (keyword != null && isWord(keyword))
+      return accept(KEYWORD_TYPES[h], line, columnStart);
+    return accept(TokenType.ID, line, columnStart);
+  }
+
+  // true if the lexeme in text spells the given word
+  private boolean isWord(String word) {
+    if (word.length() != textLength)
+      return false;
+    for (int i = 0; i < textLength; ++i)
+      if (text[i] != word.charAt(i))
+        return false;
+    return true;
+  }
+}
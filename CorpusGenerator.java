@@ -0,0 +1,507 @@
+/**
+ * File: CorpusGenerator.java
+ *
+ * Generates synthetic MyPL programs of any size from a seed, for
+ * exercising the Lexer and Parser at scale. Programs are streamed to a
+ * Writer one top-level statement at a time, so their size is not
+ * limited by memory. The same seed and settings give the same program.
+ *
+ * The shape of a program is set by: its size, the maximum nesting of
+ * blocks, the maximum number of operators in an expression, the number
+ * of distinct identifiers, the maximum length of string and number
+ * literals, and the fraction of statements preceded by a comment line.
+ * Generated programs parse, unless a nonzero error rate is set: then
+ * that fraction of top-level statements is broken on purpose (a
+ * missing keyword, a stray symbol or an unclosed string).
+ *
+ * Usage: java CorpusGenerator [-seed N] [-size BYTES] [-depth N]
+ *          [-expr N] [-vocab N] [-literal N] [-comments F] [-errors F]
+ *          [file]
+ * Sizes may end in k, m or g. Writes to standard output if no file is
+ * given.
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+
+public class CorpusGenerator {
+
+  private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+    "int", "bool", "double", "char", "string", "type", "and", "or", "not",
+    "neg", "while", "for", "to", "do", "if", "then", "else", "elif", "end",
+    "fun", "var", "set", "return", "new", "nil", "true", "false"));
+  private static final String[] OPERATORS = {"+", "-", "*", "/", "%", "and",
+    "or", "=", "!=", "<", "<=", ">", ">="};
+  private static final String[] TYPES =
+    {"int", "double", "bool", "char", "string"};
+  private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+  private static final int MAX_EXPR_NESTING = 3;  // parens, calls, not
+
+  private final Random random;
+  private long size = 1 << 20;
+  private int maxDepth = 4;
+  private int maxExprLength = 4;
+  private int literalLength = 12;
+  private double commentDensity = 0.1;
+  private double errorRate = 0;
+  private String[] names;       // identifier vocabulary
+  private int[] marks = new int[64];  // offsets of the keywords of the
+  private int markCount;              //   statement breakStatement cuts
+
+  public CorpusGenerator(long seed) {
+    random = new Random(seed);
+    names = vocabulary(200);
+  }
+
+  public static void main(String[] args) {
+    CorpusGenerator generator;
+    String file = null;
+    try {
+      Map<String, String> options = new HashMap<>();
+      for (int i = 0; i < args.length; ++i) {
+        if (args[i].startsWith("-") && i + 1 < args.length)
+          options.put(args[i], args[++i]);
+        else if (file == null)
+          file = args[i];
+        else
+          throw new IllegalArgumentException(args[i]);
+      }
+      generator = new CorpusGenerator(
+        Long.parseLong(options.getOrDefault("-seed", "1")));
+      configure(generator, options);
+    } catch (IllegalArgumentException e) {
+      System.out.println("usage: java CorpusGenerator [-seed N] [-size BYTES]"
+                         + " [-depth N] [-expr N] [-vocab N] [-literal N]"
+                         + " [-comments F] [-errors F] [file]");
+      System.exit(2);
+      return;
+    }
+    try (Writer out = file == null
+           ? new BufferedWriter(new OutputStreamWriter(System.out,
+                                  StandardCharsets.UTF_8), 1 << 16)
+           : Files.newBufferedWriter(Paths.get(file),
+                                     StandardCharsets.UTF_8)) {
+      generator.write(out);
+    } catch (IOException e) {
+      System.out.println("Unable to write '" + file + "'");
+      System.exit(1);
+    }
+  }
+
+  // applies the generator options (all but -seed) to the generator
+  static void configure(CorpusGenerator generator,
+                        Map<String, String> options) {
+    for (Map.Entry<String, String> o : options.entrySet()) {
+      String value = o.getValue();
+      switch (o.getKey()) {
+      case "-seed":
+        break;
+      case "-size":
+        generator.setSize(parseSize(value));
+        break;
+      case "-depth":
+        generator.setMaxDepth(Integer.parseInt(value));
+        break;
+      case "-expr":
+        generator.setMaxExprLength(Integer.parseInt(value));
+        break;
+      case "-vocab":
+        generator.setVocabulary(Integer.parseInt(value));
+        break;
+      case "-literal":
+        generator.setLiteralLength(Integer.parseInt(value));
+        break;
+      case "-comments":
+        generator.setCommentDensity(Double.parseDouble(value));
+        break;
+      case "-errors":
+        generator.setErrorRate(Double.parseDouble(value));
+        break;
+      default:
+        throw new IllegalArgumentException(o.getKey());
+      }
+    }
+  }
+
+  /**
+   * Parses a size in bytes, optionally ending in k, m or g.
+   */
+  public static long parseSize(String size) {
+    char unit = Character.toLowerCase(size.charAt(size.length() - 1));
+    int shift = unit == 'k' ? 10 : unit == 'm' ? 20 : unit == 'g' ? 30 : 0;
+    if (shift > 0)
+      size = size.substring(0, size.length() - 1);
+    return Long.parseLong(size) << shift;
+  }
+
+  /** Sets the approximate size of the program in bytes. */
+  public void setSize(long size) {
+    this.size = size;
+  }
+
+  /** Sets the maximum nesting of if/while/for blocks. */
+  public void setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  /** Sets the maximum number of binary operators in an expression. */
+  public void setMaxExprLength(int maxExprLength) {
+    this.maxExprLength = maxExprLength;
+  }
+
+  /** Sets the number of distinct identifiers. */
+  public void setVocabulary(int count) {
+    names = vocabulary(count);
+  }
+
+  // count distinct identifiers that are not reserved words
+  private String[] vocabulary(int count) {
+    if (count < 1)
+      throw new IllegalArgumentException("vocabulary must not be empty");
+    Set<String> chosen = new LinkedHashSet<>();
+    while (chosen.size() < count) {
+      StringBuilder name = new StringBuilder();
+      int length = 1 + random.nextInt(Math.min(8, 1 + chosen.size() / 20));
+      name.append(LETTERS.charAt(random.nextInt(26)));
+      for (int i = 1; i < length; ++i)
+        name.append(random.nextInt(4) == 0 ? (char)('0' + random.nextInt(10))
+                    : LETTERS.charAt(random.nextInt(26)));
+      if (!RESERVED.contains(name.toString()))
+        chosen.add(name.toString());
+    }
+    return chosen.toArray(new String[0]);
+  }
+
+  /** Sets the maximum length of string literals and of numbers. */
+  public void setLiteralLength(int literalLength) {
+    this.literalLength = Math.max(1, literalLength);
+  }
+
+  /** Sets the fraction of statements preceded by a comment line. */
+  public void setCommentDensity(double commentDensity) {
+    this.commentDensity = commentDensity;
+  }
+
+  /** Sets the fraction of top-level statements that are broken. */
+  public void setErrorRate(double errorRate) {
+    this.errorRate = errorRate;
+  }
+
+  /**
+   * Writes a program of about the set size.
+   */
+  public void write(Writer out) throws IOException {
+    StringBuilder text = new StringBuilder(4096);
+    long written = 0;
+    while (written < size) {
+      text.setLength(0);
+      markCount = 0;
+      topLevel(text);
+      if (errorRate > 0 && random.nextDouble() < errorRate)
+        breakStatement(text);
+      out.append(text);
+      written += text.length();
+    }
+  }
+
+
+  /* Statements */
+
+  private void topLevel(StringBuilder text) {
+    comment(text, 0);
+    int choice = random.nextInt(10);
+    if (choice < 2)
+      fdecl(text);
+    else if (choice < 3)
+      tdecl(text);
+    else
+      bstmt(text, 0, false);
+  }
+
+  private void fdecl(StringBuilder text) {
+    text.append("fun ");
+    if (random.nextInt(4) == 0)
+      text.append("nil");
+    else
+      dtype(text);
+    text.append(' ').append(name()).append('(');
+    int params = random.nextInt(4);
+    for (int i = 0; i < params; ++i) {
+      if (i > 0)
+        text.append(", ");
+      dtype(text);
+      text.append(' ').append(name());
+    }
+    text.append(")\n");
+    block(text, 1, true);
+    keyword(text, "end").append('\n');
+  }
+
+  private void tdecl(StringBuilder text) {
+    text.append("type ").append(name()).append('\n');
+    int fields = random.nextInt(5);
+    for (int i = 0; i < fields; ++i) {
+      indent(text, 1);
+      vdecl(text);
+      text.append('\n');
+    }
+    keyword(text, "end").append('\n');
+  }
+
+  // one to four statements at the given depth
+  private void block(StringBuilder text, int depth, boolean inFunction) {
+    int count = 1 + random.nextInt(4);
+    for (int i = 0; i < count; ++i)
+      bstmt(text, depth, inFunction);
+  }
+
+  private void bstmt(StringBuilder text, int depth, boolean inFunction) {
+    comment(text, depth);
+    indent(text, depth);
+    int choice = random.nextInt(inFunction ? 9 : 8);
+    // blocks only while below the maximum depth
+    if (depth >= maxDepth && choice >= 3 && choice <= 5)
+      choice = random.nextInt(3);
+    switch (choice) {
+    case 0:
+      vdecl(text);
+      break;
+    case 1:
+      text.append("set ");
+      path(text);
+      keyword(text.append(' '), ":=").append(' ');
+      expr(text, 0, false);
+      break;
+    case 2:
+    case 6:
+    case 7:
+      call(text, 0);
+      break;
+    case 3:
+      text.append("if ");
+      expr(text, 0, false);
+      keyword(text.append(' '), "then").append('\n');
+      block(text, depth + 1, inFunction);
+      for (int n = random.nextInt(3); n > 0; --n) {
+        indent(text, depth).append("elif ");
+        expr(text, 0, false);
+        keyword(text.append(' '), "then").append('\n');
+        block(text, depth + 1, inFunction);
+      }
+      if (random.nextBoolean()) {
+        indent(text, depth).append("else\n");
+        block(text, depth + 1, inFunction);
+      }
+      keyword(indent(text, depth), "end");
+      break;
+    case 4:
+      text.append("while ");
+      expr(text, 0, false);
+      keyword(text.append(' '), "do").append('\n');
+      block(text, depth + 1, inFunction);
+      keyword(indent(text, depth), "end");
+      break;
+    case 5:
+      text.append("for ").append(name()).append(' ');
+      keyword(text, ":=").append(' ');
+      expr(text, 0, false);
+      text.append(" to ");
+      expr(text, 0, false);
+      keyword(text.append(' '), "do").append('\n');
+      block(text, depth + 1, inFunction);
+      keyword(indent(text, depth), "end");
+      break;
+    default:
+      text.append("return ");
+      expr(text, 0, false);
+      break;
+    }
+    text.append('\n');
+  }
+
+  private void vdecl(StringBuilder text) {
+    text.append("var ");
+    int choice = random.nextInt(3);
+    if (choice == 0) {
+      dtype(text);
+      text.append(' ');
+    }
+    else if (choice == 1)
+      text.append(name()).append(' ');     // a user-defined type
+    text.append(name()).append(' ');
+    keyword(text, ":=").append(' ');
+    expr(text, 0, false);
+  }
+
+
+  /* Expressions */
+
+  // an expression of up to maxExprLength operators; an expression that
+  // is a call argument may not start with 'not', which the parser does
+  // not accept there
+  private void expr(StringBuilder text, int nesting, boolean argument) {
+    int operators = random.nextInt(maxExprLength + 1);
+    operand(text, nesting, argument);
+    for (int i = 0; i < operators; ++i) {
+      text.append(' ').append(OPERATORS[random.nextInt(OPERATORS.length)])
+        .append(' ');
+      operand(text, nesting, false);
+    }
+  }
+
+  private void operand(StringBuilder text, int nesting, boolean argument) {
+    int choice = random.nextInt(nesting < MAX_EXPR_NESTING ? 14 : 10);
+    switch (choice) {
+    case 0:
+    case 1:
+      integer(text);
+      break;
+    case 2:
+      integer(text);
+      text.append('.');
+      digits(text, 1 + random.nextInt(literalLength));
+      break;
+    case 3:
+      text.append(random.nextBoolean() ? "true" : "false");
+      break;
+    case 4:
+      text.append('\'').append(LETTERS.charAt(random.nextInt(26)))
+        .append('\'');
+      break;
+    case 5:
+      string(text);
+      break;
+    case 6:
+    case 7:
+      path(text);
+      break;
+    case 8:
+      text.append(random.nextBoolean() ? "nil" : "new " + name());
+      break;
+    case 9:
+      text.append("neg ");
+      integer(text);
+      break;
+    case 10:
+    case 11:
+      call(text, nesting + 1);
+      break;
+    case 12:
+      text.append('(');
+      expr(text, nesting + 1, false);
+      text.append(')');
+      break;
+    default:
+      if (argument)
+        text.append('(');
+      text.append("not ");
+      operand(text, nesting + 1, false);
+      if (argument)
+        text.append(')');
+      break;
+    }
+  }
+
+  private void call(StringBuilder text, int nesting) {
+    text.append(name()).append('(');
+    int count = random.nextInt(nesting < MAX_EXPR_NESTING ? 4 : 1);
+    for (int i = 0; i < count; ++i) {
+      if (i > 0)
+        text.append(", ");
+      expr(text, nesting + 1, true);
+    }
+    text.append(')');
+  }
+
+  // an identifier or a dotted path of up to four identifiers
+  private void path(StringBuilder text) {
+    text.append(name());
+    for (int n = random.nextInt(8) < 6 ? 0 : random.nextInt(4); n > 0; --n)
+      text.append('.').append(name());
+  }
+
+  private void integer(StringBuilder text) {
+    int length = 1 + random.nextInt(Math.min(literalLength, 9));
+    text.append((char)('1' + random.nextInt(9)));
+    digits(text, length - 1);
+  }
+
+  private void digits(StringBuilder text, int count) {
+    for (int i = 0; i < count; ++i)
+      text.append((char)('0' + random.nextInt(10)));
+  }
+
+  private void string(StringBuilder text) {
+    text.append('"');
+    for (int n = random.nextInt(literalLength + 1); n > 0; --n)
+      text.append(random.nextInt(6) == 0 ? ' '
+                  : LETTERS.charAt(random.nextInt(26)));
+    text.append('"');
+  }
+
+  private void dtype(StringBuilder text) {
+    if (random.nextInt(5) == 0)
+      text.append(name());
+    else
+      text.append(TYPES[random.nextInt(TYPES.length)]);
+  }
+
+
+  /* Helper Functions */
+
+  private String name() {
+    return names[random.nextInt(names.length)];
+  }
+
+  private void comment(StringBuilder text, int depth) {
+    if (commentDensity > 0 && random.nextDouble() < commentDensity) {
+      indent(text, depth).append("# ");
+      for (int n = 5 + random.nextInt(40); n > 0; --n)
+        text.append(random.nextInt(5) == 0 ? ' '
+                    : LETTERS.charAt(random.nextInt(26)));
+      text.append('\n');
+    }
+  }
+
+  private static StringBuilder indent(StringBuilder text, int depth) {
+    for (int i = 0; i < depth; ++i)
+      text.append("  ");
+    return text;
+  }
+
+  // appends a keyword that breakStatement may drop or insert before,
+  // recording its offset in the statement
+  private StringBuilder keyword(StringBuilder text, String word) {
+    if (markCount == marks.length)
+      marks = Arrays.copyOf(marks, markCount * 2);
+    marks[markCount++] = text.length();
+    return text.append(word);
+  }
+
+  // breaks a generated statement at one of its keywords (or after its
+  // last token, if it has none), so never inside a string or comment:
+  // drops the keyword, or inserts a stray symbol or an unclosed string
+  // before it
+  private void breakStatement(StringBuilder text) {
+    int choice = random.nextInt(3);
+    int at = text.length() - 1;
+    if (markCount > 0) {
+      at = marks[random.nextInt(markCount)];
+      if (choice == 0) {
+        int end = at;
+        while (end < text.length() && text.charAt(end) != ' '
+               && text.charAt(end) != '\n')
+          ++end;
+        text.delete(at, end);
+        return;
+      }
+    }
+    if (choice == 2)
+      text.insert(at, " \"unclosed\n");
+    else
+      text.insert(at, random.nextBoolean() ? " )" : " :=");
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * File: Diagnostics.java
+ *
+ * A preallocated sink for the errors found in a program. The type,
+ * message, line and column of each error are stored in fixed arrays,
+ * so reporting an error allocates nothing; strings and MyPLExceptions
+ * are only made when asked for. Once the sink is full, further errors
+ * are dropped, and only counted. A sink can be cleared and reused for
+ * the next program.
+ */
+
+public class Diagnostics {
+
+  private final String[] types;
+  private final String[] messages;
+  private final int[] lines;
+  private final int[] columns;
+  private int size;
+  private int dropped;          // errors reported while full
+
+  /**
+   * Creates a sink that holds up to the given number of errors.
+   */
+  public Diagnostics(int capacity) {
+    capacity = Math.max(capacity, 1);
+    types = new String[capacity];
+    messages = new String[capacity];
+    lines = new int[capacity];
+    columns = new int[capacity];
+  }
+
+  /**
+   * Records an error, or counts it as dropped if the sink is full.
+   */
+  public void report(String type, String message, int line, int column) {
+    if (size == types.length) {
+      ++dropped;
+      return;
+    }
+    types[size] = type;
+    messages[size] = message;
+    lines[size] = line;
+    columns[size] = column;
+    ++size;
+  }
+
+  /**
+   * Records the error of the given exception, or counts it as dropped
+   * if the sink is full.
+   */
+  public void report(MyPLException e) {
+    report(e.type(), e.message(), e.line(), e.column());
+  }
+
+  /**
+   * Removes all errors, and resets the count of dropped ones.
+   */
+  public void clear() {
+    size = 0;
+    dropped = 0;
+  }
+
+  /**
+   * Returns the number of errors recorded.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of errors dropped because the sink was full.
+   */
+  public int dropped() {
+    return dropped;
+  }
+
+  public int capacity() {
+    return types.length;
+  }
+
+  public boolean isFull() {
+    return size == types.length;
+  }
+
+  public String type(int i) {
+    return types[i];
+  }
+
+  public String message(int i) {
+    return messages[i];
+  }
+
+  public int line(int i) {
+    return lines[i];
+  }
+
+  public int column(int i) {
+    return columns[i];
+  }
+
+  /**
+   * Returns the i-th error as a MyPLException.
+   */
+  public MyPLException exception(int i) {
+    return new MyPLException(types[i], messages[i], lines[i], columns[i]);
+  }
+
+  /**
+   * Returns the i-th error formatted like MyPLException.toString().
+   */
+  public String toString(int i) {
+    return exception(i).toString();
+  }
+}
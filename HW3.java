@@ -5,36 +5,76 @@
  * 
  * Basic driver program for running the MyPL Parser
  * implementation. Can be used from standard input (one statement per
- * line) or over a given input file (e.g., java HW3 p1.mypl).
+ * line) or over a given input file (e.g., java HW3 p1.mypl). With
+ * -k N, reports up to N errors instead of stopping at the first
+ * (e.g., java HW3 -k 20 p1.mypl). With -profile, also prints the
+ * counts and times of each production (see ParseProfiler).
  */
 
-import java.io.InputStream;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
 
 
 public class HW3 {
 
   public static void main(String[] args) {
+    int maxErrors = 1;
+    ParseProfiler profiler = null;
+    while (args.length >= 1) {
+      if (args.length >= 2 && args[0].equals("-k")) {
+        maxErrors = Integer.parseInt(args[1]);
+        args = Arrays.copyOfRange(args, 2, args.length);
+      }
+      else if (args[0].equals("-profile")) {
+        profiler = new ParseProfiler();
+        args = Arrays.copyOfRange(args, 1, args.length);
+      }
+      else
+        break;
+    }
     try {
-      // determine if file or standard in
-      InputStream istream = System.in;
+      // create the lexer (over a mapped file or standard in)
+      Lexer lexer;
       if (args.length == 1) {
-        istream = new FileInputStream(new File(args[0]));
+        lexer = Lexer.open(Paths.get(args[0]));
+      }
+      else {
+        lexer = new Lexer(System.in);
       }
-      // create the lexer
-      Lexer lexer = new Lexer(istream);
       // create the parser
       Parser parser = new Parser(lexer);
-      parser.parse();
+      parser.setListener(profiler);
+      if (maxErrors > 1) {
+        List<MyPLException> errors = parser.parseAll(maxErrors);
+        for (MyPLException e : errors)
+          System.out.println(e);
+        printProfile(profiler);
+        if (!errors.isEmpty())
+          System.exit(1);
+      }
+      else {
+        parser.parse();
+        printProfile(profiler);
+      }
     } catch (MyPLException e) {
       System.out.println(e);
+      printProfile(profiler);
       System.exit(1);
-    } catch (FileNotFoundException e) {
+    } catch (IOException e) {
       System.out.println("Unable to open file '" + args[0] + "'");
       System.exit(1);
     }
   }
+
+  private static void printProfile(ParseProfiler profiler) {
+    if (profiler == null)
+      return;
+    profiler.finish();
+    profiler.commit();
+    System.out.println();
+    profiler.print(System.out);
+  }
   
 }
@@ -0,0 +1,715 @@
+/**
+ * File: IncrementalParser.java
+ *
+ * Keeps the token stream and parse result of a source text up to date
+ * as the text is edited, without lexing and parsing the whole text
+ * again after each edit.
+ *
+ * An edit is re-lexed from the start of its first line, the only place
+ * the lexer state is known without lexing from the beginning (column
+ * 1, between tokens), unless a char value spans into that line, in
+ * which case re-lexing starts from the line of its opening quote.
+ * Re-lexing stops as soon as a token after the edit comes out the same
+ * as before; the remaining old tokens are then kept, with their
+ * offsets and lines shifted by the edit.
+ *
+ * The token stream ends at the first lexical error or stray symbol,
+ * but the whole text is kept lexed: after such a break lexing restarts
+ * on the next line. So while an edit in progress leaves an error
+ * behind (e.g. an unclosed string), the tokens after it are still
+ * there to line up with once the error is fixed.
+ *
+ * The token stream is parsed in segments of whole top-level statements
+ * (a declaration or block statement through its 'end', or a simple
+ * statement), each by its own Parser over its range of the stream as
+ * in ParallelParser. After an edit only the segments around the
+ * changed tokens are cut and parsed again. The diagnostic is found as
+ * in ParallelParser: the stream is parsed sequentially from the first
+ * segment that fails or does not end at its boundary, and is the same
+ * error a full parse reports.
+ *
+ * So that an edit costs about the same in any size of text, the text
+ * is kept in a gap buffer, and the tokens and segments are edited in
+ * place around gaps of their own (see TokenBuffer): all three gaps
+ * follow the edits, and the offsets, lines and token indexes after
+ * them are moved by one shift each rather than one by one. An edit
+ * then costs the re-lexing and re-parsing of its statements plus a
+ * copy of the text and tokens between it and the edit before.
+ */
+
+import java.util.*;
+
+
+public class IncrementalParser {
+
+  private static final int MIN_GAP = 4096;  // chars free after growing
+
+  private char[] text;              // the text, with the chars [gapStart,
+  private int gapStart;             //   gapEnd) unused
+  private int gapEnd;
+  private int length;
+  private TokenBuffer all;          // tokens of the whole text
+  private List<Break> breaks;       // where lexing restarted, in order
+  private TokenBuffer tokens;       // all up to the first break
+  private Segments segments;        // top-level statements of all
+  private MyPLException error;      // the first error, or null
+
+  /**
+   * Lexes and parses the given source text.
+   */
+  public IncrementalParser(String source) {
+    length = source.length();
+    text = new char[length + MIN_GAP];
+    source.getChars(0, length, text, 0);
+    gapStart = length;
+    gapEnd = text.length;
+    all = new TokenBuffer(text, length / TokenBuffer.CHARS_PER_TOKEN);
+    all.setSource(text, gapStart, gapEnd - gapStart);
+    breaks = new ArrayList<>();
+    lex(lexer(0, 1, 0), all, breaks, 0, null, 0, 0);
+    tokens = stream(all, breaks);
+    segments = new Segments();
+    List<Segment> cut = new ArrayList<>();
+    cut(0, 0, 0, cut);
+    for (Segment s : cut)
+      segments.add(s);
+    diagnose();
+  }
+
+  /**
+   * Replaces the removed characters starting at offset with the
+   * inserted text, and brings the tokens and parse result up to
+   * date. Returns the first error in the new text, or null if it
+   * parses.
+   */
+  public MyPLException edit(int offset, int removed, String inserted) {
+    if (offset < 0 || removed < 0 || offset + removed > length)
+      throw new IndexOutOfBoundsException("bad edit range");
+    int added = inserted.length();
+    int delta = added - removed;
+    moveGap(offset);
+    gapEnd += removed;
+    if (gapEnd - gapStart < added)
+      growGap(added);
+    inserted.getChars(0, added, text, gapStart);
+    gapStart += added;
+    length += delta;
+    relex(offset, offset + removed, delta);
+    return error;
+  }
+
+  /**
+   * Returns the first error in the current text, or null if it parses.
+   */
+  public MyPLException error() {
+    return error;
+  }
+
+  /**
+   * Returns the token stream of the current text, which is edited in
+   * place, so it is only valid until the next edit.
+   */
+  public TokenBuffer tokens() {
+    return tokens;
+  }
+
+  /**
+   * Returns the current text.
+   */
+  public String text() {
+    return new StringBuilder(length).append(text, 0, gapStart)
+      .append(text, gapEnd, text.length - gapEnd).toString();
+  }
+
+
+  /* Gap Buffer */
+
+  // the character at the given offset of the text
+  private char charAt(int offset) {
+    return text[offset < gapStart ? offset : offset + gapEnd - gapStart];
+  }
+
+  // moves the gap to the given offset of the text
+  private void moveGap(int offset) {
+    if (offset < gapStart) {
+      int n = gapStart - offset;
+      System.arraycopy(text, offset, text, gapEnd - n, n);
+      gapStart -= n;
+      gapEnd -= n;
+    }
+    else if (offset > gapStart) {
+      int n = offset - gapStart;
+      System.arraycopy(text, gapEnd, text, gapStart, n);
+      gapStart += n;
+      gapEnd += n;
+    }
+  }
+
+  // widens the gap to at least the given number of chars
+  private void growGap(int n) {
+    char[] grown = new char[Math.max(text.length * 2, length + n + MIN_GAP)];
+    int after = text.length - gapEnd;
+    System.arraycopy(text, 0, grown, 0, gapStart);
+    System.arraycopy(text, gapEnd, grown, grown.length - after, after);
+    text = grown;
+    gapEnd = grown.length - after;
+  }
+
+  // a lexer over the text from the given offset, which must not be
+  // followed by the gap unless the gap ends the text
+  private Lexer lexer(int offset, int line, int column) {
+    if (offset >= gapStart)
+      return new Lexer(text, offset + gapEnd - gapStart, text.length, line,
+                       column);
+    return new Lexer(text, offset, gapStart, line, column);
+  }
+
+  // the offset in the text of a lexer position
+  private int offset(int position) {
+    return position >= gapEnd ? position - (gapEnd - gapStart) : position;
+  }
+
+
+  /* Re-lexing */
+
+  // re-lexes the text after old text [editStart, editEnd) was replaced,
+  // then re-parses the changed segments (only the text from editStart
+  // on has changed, so offsets before it are the same in both texts)
+  private void relex(int editStart, int editEnd, int delta) {
+    // go back to a line start where the lexer state is known, and that
+    // no token or break before it depends on text after
+    int lineStart = lineStart(editStart);
+    int first;
+    while (true) {
+      first = all.indexAt(lineStart);
+      if (first > 0 && all.type(first - 1) == TokenType.CHAR_VAL
+          && all.start(first - 1) + all.length(first - 1) >= lineStart)
+        // a char value spans into the line
+        lineStart = lineStart(begin(all, first - 1));
+      else {
+        Break b = dependent(lineStart, editStart);
+        if (b == null)
+          break;
+        lineStart = lineStart(b.begin);
+      }
+    }
+    int line = 1;
+    int column = 0;
+    if (lineStart > 0) {
+      column = 1;
+      Break b = lastBreak(lineStart);
+      if (b != null && b.index >= first)
+        line = b.line + newlines(b.restart, lineStart);
+      else if (first > 0) {
+        int prevEnd = all.start(first - 1);
+        if (all.type(first - 1) == TokenType.CHAR_VAL)
+          prevEnd += all.length(first - 1) + 1;
+        line = all.line(first - 1) + newlines(prevEnd, lineStart);
+      }
+      else
+        line = 1 + newlines(0, lineStart);
+    }
+
+    // lex from the line start on, which the gap must not follow
+    moveGap(lineStart);
+    all.setSource(text, gapStart, gapEnd - gapStart);
+    TokenBuffer relexed = new TokenBuffer(text, 64);
+    List<Break> relexedBreaks = new ArrayList<>();
+    int resumed = lex(lexer(lineStart, line, column), relexed, relexedBreaks,
+                      first, all, editEnd + delta, delta);
+    int changedEnd = first + relexed.size();
+    int oldChangedEnd = resumed < 0 ? all.size() : resumed + 1;
+    int lineDelta = 0;
+    if (resumed >= 0)
+      lineDelta = relexed.line(relexed.size() - 1) - all.line(resumed);
+
+    List<Break> newBreaks = new ArrayList<>();
+    for (Break b : breaks) {
+      if (b.begin >= lineStart)
+        break;
+      newBreaks.add(b);
+    }
+    newBreaks.addAll(relexedBreaks);
+    if (resumed >= 0) {
+      for (Break b : breaks)
+        if (b.index > resumed)
+          newBreaks.add(b.shift(changedEnd - oldChangedEnd, delta,
+                                lineDelta));
+    }
+    // replace the changed tokens in place, moving the ones after them
+    all.moveGap(first);
+    all.removeAfterGap(oldChangedEnd - first);
+    all.shiftAfterGap(delta, lineDelta);
+    all.append(relexed, 0, relexed.size(), 0);
+    breaks = newBreaks;
+    tokens = stream(all, breaks);
+    reparse(first, changedEnd, oldChangedEnd, resumed >= 0);
+  }
+
+  // lexes tokens into out until one lines up with a token of old (a
+  // token from minStart on at the same place, delta characters later,
+  // after which lexing would go on the same), and returns the index of
+  // that old token, or -1 if none does. At a lexical error or stray
+  // symbol lexing restarts on the next line, and a break is added to
+  // outBreaks. Indexes in out are counted from base.
+  private int lex(Lexer lexer, TokenBuffer out, List<Break> outBreaks,
+                  int base, TokenBuffer old, int minStart, int delta) {
+    int next = old == null ? 0 : old.indexAt(minStart - delta);
+    int begin = offset(lexer.position());   // start of the last token
+    while (true) {
+      TokenType type;
+      try {
+        type = lexer.scan();
+      } catch (MyPLException e) {
+        int position = offset(lexer.position());
+        lexer = restart(outBreaks, base + out.size(), begin, position,
+                        lexer.line(), position, e);
+        if (lexer == null)
+          return end(out, outBreaks);
+        begin = offset(lexer.position());
+        continue;
+      }
+      int start = offset(lexer.tokenStart());
+      out.add(type, start, lexer.tokenLength(), lexer.tokenLine(),
+              lexer.tokenColumn());
+      if (old != null && start >= minStart) {
+        while (next < old.size() && old.start(next) + delta < start)
+          ++next;
+        if (next < old.size() && old.start(next) + delta == start
+            && old.type(next) == type
+            && old.length(next) == lexer.tokenLength()
+            && old.column(next) == lexer.tokenColumn())
+          return next;
+      }
+      begin = start;
+      if (type == TokenType.EOS) {
+        if (start == length)
+          return -1;
+        // a stray symbol ends the stream; scan once more for the error
+        // the parser would report after it, then restart
+        int position = offset(lexer.position());
+        int line = lexer.line();
+        MyPLException error = null;
+        try {
+          lexer.scan();
+        } catch (MyPLException e) {
+          error = e;
+        }
+        lexer = restart(outBreaks, base + out.size(), start, position, line,
+                        offset(lexer.position()), error);
+        if (lexer == null)
+          return end(out, outBreaks);
+        begin = offset(lexer.position());
+      }
+    }
+  }
+
+  // ends out with an EOS token after a break at the end of the text,
+  // so that its last segment parses to an end like the token stream's
+  private int end(TokenBuffer out, List<Break> outBreaks) {
+    Break b = outBreaks.get(outBreaks.size() - 1);
+    out.add(TokenType.EOS, length, 0, b.line, 0);
+    return -1;
+  }
+
+  // adds a break where lexing stopped at the given position and line,
+  // having read the text up to scanned, and returns a lexer restarted
+  // on the next line (or null at the end of the text)
+  private Lexer restart(List<Break> breaks, int index, int begin,
+                        int position, int line, int scanned,
+                        MyPLException error) {
+    int restart = position;
+    while (restart < length && charAt(restart) != '\n')
+      ++restart;
+    if (restart < length) {
+      ++restart;
+      ++line;
+    }
+    breaks.add(new Break(index, begin, restart, line,
+                         Math.max(restart, scanned), error));
+    if (restart == length)
+      return null;
+    return lexer(restart, line, 1);
+  }
+
+  // the token stream: all tokens up to the first break
+  private static TokenBuffer stream(TokenBuffer all, List<Break> breaks) {
+    if (breaks.isEmpty())
+      return all;
+    Break b = breaks.get(0);
+    return all.prefix(b.index, b.error);
+  }
+
+  // the last break before the given line start that depends on text
+  // from the given offset on, or null if there is none
+  private Break dependent(int lineStart, int offset) {
+    for (int i = breaks.size() - 1; i >= 0; --i) {
+      Break b = breaks.get(i);
+      if (b.begin < lineStart && b.end >= offset)
+        return b;
+    }
+    return null;
+  }
+
+  // the last break before the given line start, or null if there is
+  // none
+  private Break lastBreak(int lineStart) {
+    for (int i = breaks.size() - 1; i >= 0; --i)
+      if (breaks.get(i).begin < lineStart)
+        return breaks.get(i);
+    return null;
+  }
+
+  // offset of the first character of the i-th token, including the
+  // opening quote of a char or string value
+  private static int begin(TokenBuffer tokens, int i) {
+    TokenType t = tokens.type(i);
+    if (t == TokenType.CHAR_VAL || t == TokenType.STRING_VAL)
+      return tokens.start(i) - 1;
+    return tokens.start(i);
+  }
+
+  // start of the line holding the given offset
+  private int lineStart(int offset) {
+    while (offset > 0 && charAt(offset - 1) != '\n')
+      --offset;
+    return offset;
+  }
+
+  // number of newlines in [from, to) of the text
+  private int newlines(int from, int to) {
+    int n = 0;
+    for (int i = from; i < to; ++i)
+      if (charAt(i) == '\n')
+        ++n;
+    return n;
+  }
+
+
+  /* Re-parsing */
+
+  // re-parses the segments holding tokens [first, changedEnd) of all,
+  // which replaced old tokens [first, oldChangedEnd), followed by the
+  // rest of the old tokens if resumed
+  private void reparse(int first, int changedEnd, int oldChangedEnd,
+                       boolean resumed) {
+    int shift = changedEnd - oldChangedEnd;
+    int n = segments.size();
+    // keep the segments that end before the change; the one ending
+    // right at it is cut again, since its end may have depended on the
+    // token that changed
+    int keep = search(0, first, false);
+    int from = keep < n ? segments.from(keep) : first;
+    // drop the segments that hold changed tokens, and shift the old
+    // segments that start after the change into the new tokens
+    int rest = resumed ? search(keep, oldChangedEnd, true) : n;
+    segments.moveGap(keep);
+    segments.removeAfterGap(rest - keep);
+    segments.shiftAfterGap(shift);
+    List<Segment> added = new ArrayList<>();
+    int stop = cut(from, changedEnd, keep, added);
+    rest = keep;
+    while (rest < segments.size() && segments.from(rest) < stop)
+      ++rest;
+    segments.removeAfterGap(rest - keep);
+    for (Segment s : added)
+      segments.add(s);
+    diagnose();
+  }
+
+  // index of the first segment from lo on that starts (or ends) at or
+  // after the given token
+  private int search(int lo, int index, boolean start) {
+    int hi = segments.size();
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if ((start ? segments.from(mid) : segments.to(mid)) < index)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  // cuts all tokens from the given index into segments, parses them
+  // and adds them to out, stopping at the first cut at or after minStop
+  // where one of the old segments (those from index old on) starts;
+  // returns where it stopped. Segments are also cut at every break, so
+  // that the token stream always ends at the end of a segment.
+  private int cut(int from, int minStop, int old, List<Segment> out) {
+    int n = all.size();
+    int b = 0;
+    int r = old;
+    int i = from;
+    boolean afterBlock = false;
+    while (i < n) {
+      while (b < breaks.size() && breaks.get(b).index <= from)
+        ++b;
+      int limit = b < breaks.size() ? breaks.get(b).index : n;
+      if (i > from && (i == limit || afterBlock || startsStatement(i))) {
+        if (i >= minStop && (r = seek(r, i)) < segments.size()
+            && segments.from(r) == i)
+          break;
+        out.add(parse(from, i));
+        from = i;
+        continue;
+      }
+      afterBlock = false;
+      if (opensBlock(all.type(i))) {
+        int j = blockEnd(i, limit);
+        if (j < 0) {
+          // the block is not closed, so the program has an error here;
+          // rather than parse all of the rest as one segment, leave it
+          // unparsed up to the next break or unchanged old segment
+          r = seek(r, Math.max(i + 1, minStop));
+          int to = Math.min(limit, r < segments.size() ? segments.from(r) : n);
+          out.add(new Segment(from, to));
+          from = i = to;
+          if (r < segments.size() && segments.from(r) == to)
+            return to;
+          continue;
+        }
+        i = j + 1;
+        afterBlock = true;
+      }
+      else
+        ++i;
+    }
+    if (i > from)
+      out.add(parse(from, i));
+    return i;
+  }
+
+  // index of the first segment, from r on, that does not start before
+  // i
+  private int seek(int r, int i) {
+    while (r < segments.size() && segments.from(r) < i)
+      ++r;
+    return r;
+  }
+
+  // the segment of tokens [from, to), parsed on its own
+  private Segment parse(int from, int to) {
+    Segment s = new Segment(from, to);
+    try {
+      s.aligned = new Parser(all, from, to).parseRange();
+    } catch (MyPLException e) {
+      s.aligned = false;
+    }
+    return s;
+  }
+
+  // finds the first error by parsing the token stream sequentially from
+  // the first segment that did not parse on its own, or else from its
+  // last segment, which was parsed without the end of the stream
+  private void diagnose() {
+    int last = search(0, tokens.size(), false);
+    int from = last < segments.size() ? segments.from(last) : 0;
+    int i = segments.firstUnaligned();
+    if (i < last)
+      from = segments.from(i);
+    error = null;
+    try {
+      new Parser(tokens, from, tokens.size()).parse();
+    } catch (MyPLException e) {
+      error = e;
+    }
+  }
+
+  // true if the i-th token, at the top level, can only start a
+  // statement and so never continues the statement before it: a
+  // keyword that only begins statements, or an identifier right after
+  // a value or ')', which no expression is followed by
+  private boolean startsStatement(int i) {
+    TokenType t = all.type(i);
+    if (t == TokenType.ID) {
+      TokenType prev = all.type(i - 1);
+      return prev == TokenType.RPAREN || prev == TokenType.NIL
+        || prev == TokenType.INT_VAL || prev == TokenType.DOUBLE_VAL
+        || prev == TokenType.BOOL_VAL || prev == TokenType.CHAR_VAL
+        || prev == TokenType.STRING_VAL;
+    }
+    return opensBlock(t) || t == TokenType.VAR || t == TokenType.SET;
+  }
+
+  // true if the token type opens a block closed by 'end'
+  private static boolean opensBlock(TokenType t) {
+    return t == TokenType.IF || t == TokenType.WHILE || t == TokenType.FOR
+      || t == TokenType.FUN || t == TokenType.TYPE;
+  }
+
+  // index of the 'end' closing the block opened at i, or -1 if the
+  // block is not closed before the given limit
+  private int blockEnd(int i, int limit) {
+    int depth = 0;
+    for (; i < limit; ++i) {
+      TokenType t = all.type(i);
+      if (opensBlock(t))
+        ++depth;
+      else if (t == TokenType.END && --depth == 0)
+        return i;
+    }
+    return -1;
+  }
+
+
+  /* Breaks and Segments */
+
+  // a place where lexing of the text stopped, at a lexical error or
+  // after a stray symbol, and restarted on the next line
+  private static class Break {
+
+    final int index;              // index of the first token after it
+    final int begin;              // text it depends on: [begin, end]
+    final int end;
+    final int restart;            // offset and line lexing restarted at
+    final int line;
+    final MyPLException error;    // error at the break, or null
+
+    Break(int index, int begin, int restart, int line, int end,
+          MyPLException error) {
+      this.index = index;
+      this.begin = begin;
+      this.end = end;
+      this.restart = restart;
+      this.line = line;
+      this.error = error;
+    }
+
+    // the break moved by the given number of tokens, characters and
+    // lines
+    Break shift(int tokens, int chars, int lines) {
+      MyPLException e = error;
+      if (e != null && lines != 0)
+        e = new MyPLException(e.type(), e.message(), e.line() + lines,
+                              e.column());
+      return new Break(index + tokens, begin + chars, restart + chars,
+                       line + lines, end + chars, e);
+    }
+  }
+
+  private static class Segment {
+
+    int from;
+    int to;
+    boolean aligned;        // parsed without error, ending at to
+                            // (false if not parsed)
+
+    Segment(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+  }
+
+  // the segments of the text in order, stored like the tokens of a
+  // TokenBuffer: segments [0, gap) at the front of the arrays and the
+  // rest at the back, with their token indexes stored less a shift
+  private static class Segments {
+
+    private int[] froms = new int[64];
+    private int[] tos = new int[64];
+    private boolean[] aligned = new boolean[64];
+    private int size;
+    private int gap;              // index of the first segment after the gap
+    private int tail = 64;        // where the segments after the gap are
+    private int shift;            // shift of the indexes after the gap
+    private int unaligned;        // segments that are not aligned
+
+    int size() {
+      return size;
+    }
+
+    int from(int i) {
+      return i < gap ? froms[i] : froms[i - gap + tail] + shift;
+    }
+
+    int to(int i) {
+      return i < gap ? tos[i] : tos[i - gap + tail] + shift;
+    }
+
+    // index of the first segment that is not aligned, or size() if all
+    // of them are
+    int firstUnaligned() {
+      int i = 0;
+      if (unaligned == 0)
+        return size;
+      while (i < size && aligned[i < gap ? i : i - gap + tail])
+        ++i;
+      return i;
+    }
+
+    // inserts a segment at the gap
+    void add(Segment s) {
+      if (gap == tail)
+        grow();
+      froms[gap] = s.from;
+      tos[gap] = s.to;
+      aligned[gap] = s.aligned;
+      if (!s.aligned)
+        ++unaligned;
+      ++gap;
+      ++size;
+    }
+
+    // moves the gap to before the i-th segment
+    void moveGap(int i) {
+      if (i < gap) {
+        int n = gap - i;
+        tail -= n;
+        move(i, tail, n, -shift);
+        gap = i;
+      }
+      else if (i > gap) {
+        int n = i - gap;
+        move(tail, gap, n, shift);
+        tail += n;
+        gap = i;
+      }
+    }
+
+    // removes the given number of segments after the gap
+    void removeAfterGap(int count) {
+      for (int k = tail; k < tail + count; ++k)
+        if (!aligned[k])
+          --unaligned;
+      tail += count;
+      size -= count;
+    }
+
+    // moves the token indexes of the segments after the gap
+    void shiftAfterGap(int delta) {
+      shift += delta;
+    }
+
+    // copies n segments between the front and the back of the arrays,
+    // adjusting their stored indexes by delta
+    private void move(int from, int to, int n, int delta) {
+      System.arraycopy(froms, from, froms, to, n);
+      System.arraycopy(tos, from, tos, to, n);
+      System.arraycopy(aligned, from, aligned, to, n);
+      for (int k = to; k < to + n; ++k) {
+        froms[k] += delta;
+        tos[k] += delta;
+      }
+    }
+
+    // doubles the arrays, keeping the segments after the gap at the back
+    private void grow() {
+      int capacity = froms.length * 2;
+      int after = size - gap;
+      int[] newFroms = new int[capacity];
+      int[] newTos = new int[capacity];
+      boolean[] newAligned = new boolean[capacity];
+      System.arraycopy(froms, 0, newFroms, 0, gap);
+      System.arraycopy(tos, 0, newTos, 0, gap);
+      System.arraycopy(aligned, 0, newAligned, 0, gap);
+      System.arraycopy(froms, tail, newFroms, capacity - after, after);
+      System.arraycopy(tos, tail, newTos, capacity - after, after);
+      System.arraycopy(aligned, tail, newAligned, capacity - after, after);
+      froms = newFroms;
+      tos = newTos;
+      aligned = newAligned;
+      tail = capacity - after;
+    }
+  }
+}
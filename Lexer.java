@@ -8,57 +8,278 @@
  * is returned by nextToken). The file has been completed read when
  * nextToken returns the EOS token. Lexical errors in the source file
  * result in the nextToken function throwing a MyPL Exception.
+ *
+ * Input is read in blocks into a char window owned by the lexer, and
+ * each character is classified through a precomputed char-class
+ * table. The first class of a token selects the scanning state, and
+ * each state consumes characters by class until it accepts a token.
+ * Numeric literals are decoded as they are scanned, so INT_VAL and
+ * DOUBLE_VAL tokens carry their values.
  */
 
-import java.util.*;
-
-import jdk.nashorn.internal.ir.Symbol;
-
 import java.io.*;
 
 
 public class Lexer {
 
-  private BufferedReader buffer; // handle to input stream
+  private static final int WINDOW_SIZE = 8192;
+
+  // doubles with a decimal mantissa up to 2^53 and up to 22 fraction
+  // digits are exactly a mantissa divided by an exact power of ten, so
+  // one division rounds them correctly
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  private static final double[] POWERS_OF_TEN = new double[23];
+
+  // character classes
+  static final byte OTHER = 0;
+  static final byte SPACE = 1;
+  static final byte NEWLINE = 2;
+  static final byte HASH = 3;
+  static final byte DIGIT = 4;
+  static final byte LETTER = 5;
+  static final byte UNDERSCORE = 6;
+  static final byte SINGLE = 7;      // one-character symbols
+  static final byte LESS = 8;
+  static final byte GREATER = 9;
+  static final byte BANG = 10;
+  static final byte COLON = 11;
+  static final byte QUOTE = 12;
+  static final byte DQUOTE = 13;
+  static final byte DOT = 14;
+
+  private static final byte[] CHAR_CLASS = new byte[128];
+  static final TokenType[] SINGLE_TYPE = new TokenType[128];
+
+  // reserved words, stored by a perfect hash of their length, first
+  // and last characters (see keywordHash)
+  static final String[] KEYWORDS = new String[64];
+  static final TokenType[] KEYWORD_TYPES = new TokenType[64];
+
+  // lexemes of the token types that always have the same lexeme
+  private static final String[] FIXED_LEXEMES =
+    new String[TokenType.values().length];
+
+  static {
+    POWERS_OF_TEN[0] = 1;
+    for (int i = 1; i < POWERS_OF_TEN.length; ++i)
+      POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    for (int c = 0; c < 128; ++c) {
+      if (c == '\n')
+        CHAR_CLASS[c] = NEWLINE;
+      else if (Character.isWhitespace((char)c))
+        CHAR_CLASS[c] = SPACE;
+      else if (c >= '0' && c <= '9')
+        CHAR_CLASS[c] = DIGIT;
+      else if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'))
+        CHAR_CLASS[c] = LETTER;
+    }
+    CHAR_CLASS['#'] = HASH;
+    CHAR_CLASS['_'] = UNDERSCORE;
+    CHAR_CLASS['<'] = LESS;
+    CHAR_CLASS['>'] = GREATER;
+    CHAR_CLASS['!'] = BANG;
+    CHAR_CLASS[':'] = COLON;
+    CHAR_CLASS['\''] = QUOTE;
+    CHAR_CLASS['"'] = DQUOTE;
+    CHAR_CLASS['.'] = DOT;
+    single(',', TokenType.COMMA);
+    single('+', TokenType.PLUS);
+    single('-', TokenType.MINUS);
+    single('*', TokenType.MULTIPLY);
+    single('/', TokenType.DIVIDE);
+    single('%', TokenType.MODULO);
+    single('=', TokenType.EQUAL);
+    single('(', TokenType.LPAREN);
+    single(')', TokenType.RPAREN);
+    keyword("int", TokenType.INT_TYPE);
+    keyword("bool", TokenType.BOOL_TYPE);
+    keyword("double", TokenType.DOUBLE_TYPE);
+    keyword("char", TokenType.CHAR_TYPE);
+    keyword("string", TokenType.STRING_TYPE);
+    keyword("type", TokenType.TYPE);
+    keyword("and", TokenType.AND);
+    keyword("or", TokenType.OR);
+    keyword("not", TokenType.NOT);
+    keyword("neg", TokenType.NEG);
+    keyword("while", TokenType.WHILE);
+    keyword("for", TokenType.FOR);
+    keyword("to", TokenType.TO);
+    keyword("do", TokenType.DO);
+    keyword("if", TokenType.IF);
+    keyword("then", TokenType.THEN);
+    keyword("else", TokenType.ELSE);
+    keyword("elif", TokenType.ELIF);
+    keyword("end", TokenType.END);
+    keyword("fun", TokenType.FUN);
+    keyword("var", TokenType.VAR);
+    keyword("set", TokenType.SET);
+    keyword("return", TokenType.RETURN);
+    keyword("new", TokenType.NEW);
+    keyword("nil", TokenType.NIL);
+    FIXED_LEXEMES[TokenType.DOT.ordinal()] = ".";
+    FIXED_LEXEMES[TokenType.LESS_THAN.ordinal()] = "<";
+    FIXED_LEXEMES[TokenType.LESS_THAN_EQUAL.ordinal()] = "<=";
+    FIXED_LEXEMES[TokenType.GREATER_THAN.ordinal()] = ">";
+    FIXED_LEXEMES[TokenType.GREATER_THAN_EQUAL.ordinal()] = ">=";
+    FIXED_LEXEMES[TokenType.NOT_EQUAL.ordinal()] = "!=";
+    FIXED_LEXEMES[TokenType.ASSIGN.ordinal()] = ":=";
+    FIXED_LEXEMES[TokenType.EOS.ordinal()] = "";
+  }
+
+  private static void single(char c, TokenType type) {
+    CHAR_CLASS[c] = SINGLE;
+    SINGLE_TYPE[c] = type;
+    FIXED_LEXEMES[type.ordinal()] = String.valueOf(c);
+  }
+
+  private static void keyword(String word, TokenType type) {
+    int h = keywordHash(word.charAt(0), word.charAt(word.length() - 1),
+                        word.length());
+    if (KEYWORDS[h] != null)
+      throw new IllegalStateException("keyword hash collision: " + word);
+    KEYWORDS[h] = word;
+    KEYWORD_TYPES[h] = type;
+    FIXED_LEXEMES[type.ordinal()] = word;
+  }
+
+  // perfect (collision free) hash over the reserved words
+  static int keywordHash(char first, char last, int length) {
+    return (first + 6 * last + 7 * length) & 63;
+  }
+
+  // class of the given character, falling back to the Character
+  // predicates for anything outside of ASCII
+  static byte classOf(int c) {
+    if (c < 128)
+      return CHAR_CLASS[c];
+    if (Character.isWhitespace((char)c))
+      return SPACE;
+    if (Character.isDigit((char)c))
+      return DIGIT;
+    if (Character.isLetter((char)c))
+      return LETTER;
+    return OTHER;
+  }
+
+  private Reader reader;        // handle to input stream
+  private char[] buf;           // window of input owned by the lexer
+  private int pos;              // next unread character in buf
+  private int limit;            // end of the valid characters in buf
+  private int mark;             // start of the lexeme being scanned
+  private boolean shared;       // buf is referenced by token slices
   private int line;
   private int column;
-  
-  /** 
+  private int tokenStart;       // lexeme of the last scanned token
+  private int tokenLength;
+  private int tokenLine;        // position of the last scanned token
+  private int tokenColumn;
+  private long tokenValue;      // value of a number (raw bits if double)
+  private SymbolTable symbols;  // made on first use, unless set
+
+  /**
+   * Create a new lexer over the given input stream.
    */
   public Lexer(InputStream instream) {
-    buffer = new BufferedReader(new InputStreamReader(instream));
+    this(new InputStreamReader(instream));
+  }
+
+  /**
+   * Create a new lexer over the given reader.
+   */
+  public Lexer(Reader reader) {
+    this.reader = reader;
+    this.buf = new char[WINDOW_SIZE];
     this.line = 1;
     this.column = 0;
   }
 
-  
   /**
-   * Returns next character in the stream. Returns -1 if end of file.
+   * Create a new lexer that reads the given UTF-8 file through a
+   * memory mapping instead of read calls.
+   */
+  public static Lexer open(java.nio.file.Path path) throws IOException {
+    return new Lexer(new MappedReader(path));
+  }
+
+  /**
+   * Create a new lexer over the first length characters of the given
+   * array, which the lexer then owns.
    */
-  private int read() throws MyPLException {
+  public Lexer(char[] source, int length) {
+    this(source, 0, length, 1, 0);
+  }
+
+  // a lexer over source[start, end) that starts at the given position
+  Lexer(char[] source, int start, int end, int line, int column) {
+    this.buf = source;
+    this.pos = start;
+    this.mark = start;
+    this.limit = end;
+    this.line = line;
+    this.column = column;
+  }
+
+
+  /**
+   * Interns identifiers into the given table, which may be shared
+   * with lexers running on other threads.
+   */
+  public void setSymbolTable(SymbolTable symbols) {
+    this.symbols = symbols;
+  }
+
+  /**
+   * Returns the table identifiers are interned into (a table of the
+   * lexer's own, unless one was set).
+   */
+  public SymbolTable symbolTable() {
+    if (symbols == null)
+      symbols = new SymbolTable();
+    return symbols;
+  }
+
+
+  /**
+   * Reads the next block of input into the window, keeping the
+   * characters from mark on. Returns false if end of file.
+   */
+  private boolean fill() throws MyPLException {
+    if (reader == null)
+      return false;
+    int keep = limit - mark;
+    if (shared || keep == buf.length) {
+      // tokens may still refer to the old window, so move to a new one
+      char[] window = new char[Math.max(WINDOW_SIZE, keep * 2)];
+      System.arraycopy(buf, mark, window, 0, keep);
+      buf = window;
+      shared = false;
+    }
+    else if (mark > 0)
+      System.arraycopy(buf, mark, buf, 0, keep);
+    pos -= mark;
+    limit = keep;
+    mark = 0;
     try {
-      int ch = buffer.read();
-      return ch;
+      int n = reader.read(buf, limit, buf.length - limit);
+      if (n <= 0)
+        return false;
+      limit += n;
+      return true;
     } catch(IOException e) {
       error("read error", line, column + 1);
     }
-    return -1;
+    return false;
   }
 
-  
-  /** 
-   * Returns next character without removing it from the stream.
+
+  /**
+   * Returns next character without removing it from the window.
+   * Returns -1 if end of file.
    */
   private int peek() throws MyPLException {
-    int ch = -1;
-    try {
-      buffer.mark(1);
-      ch = read();
-      buffer.reset();
-    } catch(IOException e) {
-      error("read error", line, column + 1);
-    }
-    return ch;
+    if (pos < limit || fill())
+      return buf[pos];
+    return -1;
   }
 
 
@@ -73,286 +294,387 @@ public class Lexer {
   /**
    */
   public Token nextToken() throws MyPLException {
-    // TODO: your job in HW2 is to implement the next token function
-    String lexeme = "";
-    char Symbol = (char)peek();
-    if(Character.isWhitespace((char)peek())){
-      if((char)read() == '\n'){
-        ++line;
-        column = 1;
-        //return nextToken();
-      }
-      else{
-        ++column;
-      }
-      return nextToken();
-    }
-    if((char)peek() == '#'){
-      read();
-      ++column;
-      while(!((char)read() == '\n'));
-      ++line;
-      column = 1;
-      return nextToken();
+    TokenType type = scan();
+    String lexeme = FIXED_LEXEMES[type.ordinal()];
+    int symbol = -1;
+    if (type == TokenType.ID) {
+      SymbolTable symbols = symbolTable();
+      symbol = symbols.intern(buf, tokenStart, tokenLength);
+      lexeme = symbols.name(symbol);
     }
-    else if (peek() == -1){
-      return new Token(TokenType.EOS, "", line, column);
+    else if (lexeme == null) {
+      shared = true;
+      if (type == TokenType.INT_VAL || type == TokenType.DOUBLE_VAL)
+        return new Token(type, buf, tokenStart, tokenLength, tokenLine,
+                         tokenColumn, tokenValue);
+      return new Token(type, buf, tokenStart, tokenLength, tokenLine,
+                       tokenColumn);
     }
-    else if ((char)peek() == ',') {
-      read();
+    return new Token(type, lexeme, tokenLine, tokenColumn, symbol);
+  }
+
+
+  /**
+   * Scans the next token without building a Token object. The token's
+   * position and the location of its lexeme in buffer() are then
+   * available from the token accessors below. Tokens with a fixed
+   * lexeme (symbols and reserved words) have a zero-length lexeme.
+   */
+  TokenType scan() throws MyPLException {
+    int ch = skipTrivia();
+    mark = pos;
+    if (ch == -1)
+      return accept(TokenType.EOS, line, column);
+    switch (classOf(ch)) {
+    case SINGLE:
+      ++pos;
       ++column;
-      return new Token(TokenType.COMMA, ",", line, column);
-    }
-    else if ((char)peek() == '.') {
-      read();
+      return accept(SINGLE_TYPE[ch], line, column);
+    case DOT:
+      ++pos;
       ++column;
-      return new Token(TokenType.DOT, ".", line, column);
-    }
-    else if ((char)peek() == '+') {
-      read();
+      return accept(TokenType.DOT, line, column);
+    case LESS:
+      return relational(TokenType.LESS_THAN, TokenType.LESS_THAN_EQUAL);
+    case GREATER:
+      return relational(TokenType.GREATER_THAN, TokenType.GREATER_THAN_EQUAL);
+    case BANG:
+      ++pos;
       ++column;
-      return new Token(TokenType.PLUS, "+", line, column);
-    }
-    else if ((char)peek() == '-') {
-      read();
+      if (peek() == '=') {
+        ++pos;
+        ++column;
+        return accept(TokenType.NOT_EQUAL, line, column - 1);
+      }
+      // a lone '!' is not a symbol and ends the stream
+      return accept(TokenType.EOS, line, column);
+    case COLON:
+      ++pos;
       ++column;
-      return new Token(TokenType.MINUS, "-", line, column);
-    }
-    else if ((char)peek() == '*') {
-      read();
+      if (peek() == '=')
+        ++pos;
       ++column;
-      return new Token(TokenType.MULTIPLY, "*", line, column);
+      return accept(TokenType.ASSIGN, line, column - 1);
+    case QUOTE:
+      return charValue();
+    case DQUOTE:
+      return stringValue();
+    case DIGIT:
+      return number();
+    case LETTER:
+      return word();
+    default:
+      // unknown symbols are left in the stream and end it
+      return accept(TokenType.EOS, line, column);
     }
-    else if ((char)peek() == '/') {
-      read();
-      ++column;
-      return new Token(TokenType.DIVIDE, "/", line, column);
+  }
+
+  // the array holding the lexeme of the last scanned token
+  char[] buffer() {
+    return buf;
+  }
+
+  // offset in buffer() of the last scanned token's lexeme
+  int tokenStart() {
+    return tokenStart;
+  }
+
+  // length of the last scanned token's lexeme
+  int tokenLength() {
+    return tokenLength;
+  }
+
+  int tokenLine() {
+    return tokenLine;
+  }
+
+  int tokenColumn() {
+    return tokenColumn;
+  }
+
+  // value of the last scanned number (as raw bits if a double)
+  long tokenValue() {
+    return tokenValue;
+  }
+
+  // the current position of the lexer, past the last scanned token
+  int position() {
+    return pos;
+  }
+
+  // the end of the characters the lexer scans
+  int limit() {
+    return limit;
+  }
+
+  int line() {
+    return line;
+  }
+
+  int column() {
+    return column;
+  }
+
+  // the lexeme of a token type whose lexeme does not vary, else null
+  static String fixedLexeme(TokenType type) {
+    return FIXED_LEXEMES[type.ordinal()];
+  }
+
+  // the value of an int lexeme, which must fit in a long
+  static long decodeLong(char[] s, int start, int length) {
+    long value = 0;
+    for (int i = start; i < start + length; ++i)
+      value = value * 10 + digitValue(s[i]);
+    return value;
+  }
+
+  // the value of a double lexeme (digits '.' digits), correctly
+  // rounded
+  static double decodeDouble(char[] s, int start, int length) {
+    long mantissa = 0;
+    int scale = -1;             // fraction digits, once past the '.'
+    for (int i = start; i < start + length; ++i) {
+      char c = s[i];
+      if (c == '.')
+        scale = 0;
+      else {
+        mantissa = mantissa * 10 + digitValue(c);
+        if (scale >= 0)
+          ++scale;
+        if (mantissa > MAX_EXACT_MANTISSA)
+          return parseDouble(s, start, length);
+      }
     }
-    else if ((char)peek() == '%') {
-      read();
-      ++column;
-      return new Token(TokenType.MODULO, "%", line, column);
+    if (scale >= POWERS_OF_TEN.length)
+      return parseDouble(s, start, length);
+    return mantissa / POWERS_OF_TEN[Math.max(scale, 0)];
+  }
+
+  // the value of a digit char, which may be any Unicode decimal digit
+  // (as Character.isDigit accepts them)
+  static int digitValue(int ch) {
+    return ch <= '9' ? ch - '0' : Character.digit((char)ch, 10);
+  }
+
+  // a double lexeme parsed by Double.parseDouble, which only takes
+  // ASCII digits
+  private static double parseDouble(char[] s, int start, int length) {
+    char[] ascii = new char[length];
+    for (int i = 0; i < length; ++i) {
+      char c = s[start + i];
+      ascii[i] = c == '.' ? c : (char)('0' + digitValue(c));
     }
-    else if ((char)peek() == '>') {
-      read();
-      ++column;
-      if(peek() == '='){
-        read();
-        ++column;
-        return new Token(TokenType.GREATER_THAN_EQUAL, ">=", line, column - 1);
+    return Double.parseDouble(new String(ascii));
+  }
+
+  // records a token with a fixed lexeme
+  private TokenType accept(TokenType type, int line, int column) {
+    tokenStart = mark;
+    tokenLength = 0;
+    tokenLine = line;
+    tokenColumn = column;
+    return type;
+  }
+
+  // records a token whose lexeme is buf[start, start + length)
+  private TokenType accept(TokenType type, int start, int length,
+                           int line, int column) {
+    tokenStart = start;
+    tokenLength = length;
+    tokenLine = line;
+    tokenColumn = column;
+    return type;
+  }
+
+
+  /* Scanning States */
+
+  // skips whitespace and comments, returning the first character of
+  // the next token (or -1 at end of file)
+  private int skipTrivia() throws MyPLException {
+    mark = pos;
+    int ch = peek();
+    while (ch != -1) {
+      byte cls = classOf(ch);
+      if (cls == NEWLINE) {
+        ++pos;
+        ++line;
+        column = 1;
       }
-      else
-      return new Token(TokenType.GREATER_THAN, ">", line, column);
-    }
-    else if ((char)peek() == '<') {
-      read();
-      ++column;
-      if(peek() == '='){
-        read();
+      else if (cls == SPACE) {
+        ++pos;
         ++column;
-        return new Token(TokenType.LESS_THAN_EQUAL, "<=", line, column - 1 );
       }
+      else if (cls == HASH)
+        comment();
       else
-      return new Token(TokenType.LESS_THAN, "<", line, column);
+        break;
+      mark = pos;
+      ch = peek();
     }
-    else if ((char)peek() == '=') {
-      read();
-      ++column;
-      return new Token(TokenType.EQUAL, "=", line, column);
+    return ch;
+  }
+
+  // skips a comment through the end of its line
+  private void comment() throws MyPLException {
+    ++pos;
+    ++column;
+    int ch = peek();
+    while (ch != '\n' && ch != -1) {
+      mark = ++pos;
+      ch = peek();
     }
-    else if ((char)peek() == '!') {
-      read();
-      ++column;
-      if ((char)peek() == '=') {
-        read();
-        ++column;
-        return new Token(TokenType.NOT_EQUAL, "!=", line, column - 1);
-      }
+    if (ch == '\n') {
+      ++pos;
+      ++line;
+      column = 1;
     }
-    else if ((char)peek() == '(') {
-      read();
+  }
+
+  // a relational operator optionally followed by '='
+  private TokenType relational(TokenType single, TokenType equal)
+    throws MyPLException
+  {
+    ++pos;
+    ++column;
+    if (peek() == '=') {
+      ++pos;
       ++column;
-      return new Token(TokenType.LPAREN, "(", line, column);
+      return accept(equal, line, column - 1);
     }
-    else if ((char)peek() == ')') {
-      read();
-      ++column;
-      return new Token(TokenType.RPAREN, ")", line, column);
+    return accept(single, line, column);
+  }
+
+  // a character value, which runs through the next single quote
+  private TokenType charValue() throws MyPLException {
+    ++pos;
+    ++column;
+    mark = pos;
+    int ch = peek();
+    while (ch != '\'') {
+      if (ch == -1)
+        error("Bad char need to close char declaration with quote",
+              line, column);
+      ++pos;
+      ch = peek();
     }
-    else if ((char)peek() == ':') {
-      read();
-      ++column;
-      if((char)peek() == '=')
-      read();
-      ++column;
-      return new Token(TokenType.ASSIGN, ":=", line, column - 1);
+    ++pos;
+    ++column;
+    return accept(TokenType.CHAR_VAL, mark, pos - 1 - mark, line, column - 1);
+  }
+
+  // a string value, which must be closed on the same line
+  private TokenType stringValue() throws MyPLException {
+    ++pos;
+    ++column;
+    int columnStart = column;
+    mark = pos;
+    int ch = peek();
+    while (ch != '"') {
+      if (ch == -1) {
+        String msg = "Bad string need to close string declaration with quotes";
+        error(msg, line, column);
+      }
+      if (ch == '\n') {
+        String msg = "found newline within string";
+        error(msg, line, column);
+      }
+      ++pos;
+      ch = peek();
     }
-    else if((char)peek() == '\''){
-      read();
-      ++column;
-      while(peek() != '\''){
-        //Symbol = (char)read();
-        lexeme += (char)read();
-      }
-      read();
+    ++pos;
+    ++column;
+    return accept(TokenType.STRING_VAL, mark, pos - 1 - mark, line,
+                  columnStart);
+  }
+
+  // an int value, or a double value if the digits are followed by '.';
+  // the value is kept in tokenValue
+  private TokenType number() throws MyPLException {
+    long value = 0;
+    int overflow = 0;           // column of the digit that overflowed
+    int ch = peek();
+    while (ch != -1 && classOf(ch) == DIGIT) {
+      ++pos;
       ++column;
-      return new Token(TokenType.CHAR_VAL, lexeme, line, column - 1);
+      int digit = digitValue(ch);
+      if (value > (Long.MAX_VALUE - digit) / 10 && overflow == 0)
+        overflow = column;
+      value = value * 10 + digit;
+      ch = peek();
     }
-    else if((char)peek() == '"'){
-      read();
-      ++column;
-      int columnStart = column;
-      //int col = column;
-      while((char)peek() != '"'){
-        //Symbol = (char)read();
-        if (peek() == -1){
-          String msg = "Bad string need to close string declaration with quotes";
-          error(msg, line, column);
-        }
-        if((char)peek() == '\n'){
-          String msg = "found newline within string";
-          error(msg, line, column);
-        }
-        else
-          lexeme += (char)read(); 
-      }
-      read();
-      ++column;
-      return new Token(TokenType.STRING_VAL, lexeme, line, columnStart);
+    if (ch != -1 && Character.isLetter((char)ch)) {
+      String msg = "unexpected symbol '" + (char)ch + "'";
+      error(msg, line, column);
     }
-    else if(Character.isDigit(Symbol)){
-      //lexeme += Symbol;
-      int columnStart = 0;
-      while(Character.isDigit((char)peek())){
-        lexeme+=(char)read();
-        ++column;
-        columnStart = column;
-        if(Character.isLetter((char)peek())){
-          //++column;
-          String msg = "unexpected symbol '" + (char)peek() + "'";
-          error(msg, line, column );
-        }
-        if((char)peek() == '.'){
-            lexeme += (char)read();
-            if(!Character.isDigit((char)peek())){
-              String msg = "missing digit in float '" + lexeme + "'";
-              error(msg, line, column);
-            }
-            else{
-            while(Character.isDigit((char)peek())){
-              lexeme += (char)read();
-            }
-            if(Character.isLetter((char)peek())){
-              String msg = "invalid character in " + lexeme;
-              error(msg, line, column);
-            }
-            else if((char)peek() == '.'){
-              String msg = "Too many decimals in number " + lexeme;
-              error(msg, line, column);
-            }
-          }
-            return new Token(TokenType.DOUBLE_VAL, lexeme, line, column);
-        }
-        else if(!Character.isDigit((char)peek())){  
-        if(lexeme.charAt(0) == '0' && lexeme.length() > 1){
-          String msg = "leading zero in " + "'" + lexeme + "'";
-          error(msg, line, column);
-        }
-        return new Token(TokenType.INT_VAL, lexeme, line, columnStart);
-      }
+    if (ch == '.') {
+      ++pos;
+      ch = peek();
+      if (ch == -1 || classOf(ch) != DIGIT) {
+        String msg = "missing digit in float '" + lexeme() + "'";
+        error(msg, line, column);
+      }
+      while (ch != -1 && classOf(ch) == DIGIT) {
+        ++pos;
+        ch = peek();
+      }
+      if (ch != -1 && Character.isLetter((char)ch)) {
+        String msg = "invalid character in " + lexeme();
+        error(msg, line, column);
+      }
+      else if (ch == '.') {
+        String msg = "Too many decimals in number " + lexeme();
+        error(msg, line, column);
+      }
+      tokenValue = Double.doubleToRawLongBits(
+        decodeDouble(buf, mark, pos - mark));
+      return accept(TokenType.DOUBLE_VAL, mark, pos - mark, line, column);
+    }
+    if (buf[mark] == '0' && pos - mark > 1) {
+      String msg = "leading zero in " + "'" + lexeme() + "'";
+      error(msg, line, column);
     }
+    if (overflow != 0) {
+      String msg = "integer out of range '" + lexeme() + "'";
+      error(msg, line, overflow);
+    }
+    tokenValue = value;
+    return accept(TokenType.INT_VAL, mark, pos - mark, line, column);
   }
-    //read strings in file
-    if(Character.isLetter(Symbol)){
-      //System.out.println(lexeme);
+
+  // an identifier or reserved word
+  private TokenType word() throws MyPLException {
+    ++column;
+    int columnStart = column;
+    int ch = peek();
+    while (ch != -1) {
+      byte cls = classOf(ch);
+      if (cls != LETTER && cls != DIGIT && cls != UNDERSCORE)
+        break;
+      ++pos;
       ++column;
-      int columnStart = column;
-      while(Character.isLetter((char)peek()) 
-            || (char)peek() == '_' 
-            || Character.isDigit((char)peek())){
-        lexeme += (char)read();
-        ++column;
-      }
-      //System.out.println(lexeme);
-      if(lexeme.equals("int")){
-        return new Token(TokenType.INT_TYPE, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("bool")){
-        return new Token(TokenType.BOOL_TYPE, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("double")){
-        return new Token(TokenType.DOUBLE_TYPE, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("char")){
-        return new Token(TokenType.CHAR_TYPE, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("string")){
-        return new Token(TokenType.STRING_TYPE, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("type")){
-        return new Token(TokenType.TYPE, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("and")){
-        return new Token(TokenType.AND, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("or")){
-        return new Token(TokenType.OR, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("not")){
-        return new Token(TokenType.NOT, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("neg")){
-        return new Token(TokenType.NEG, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("while")){
-        return new Token(TokenType.WHILE, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("for")){
-        return new Token(TokenType.FOR, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("to")){
-        return new Token(TokenType.TO, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("do")){
-        return new Token(TokenType.DO, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("if")){
-        return new Token(TokenType.IF, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("then")){
-        return new Token(TokenType.THEN, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("else")){
-        return new Token(TokenType.ELSE, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("elif")){
-        return new Token(TokenType.ELIF, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("end")){
-        return new Token(TokenType.END, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("fun")){
-        return new Token(TokenType.FUN, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("var")){
-        return new Token(TokenType.VAR, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("set")){
-        return new Token(TokenType.SET, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("return")){
-        return new Token(TokenType.RETURN, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("new")){
-        return new Token(TokenType.NEW, lexeme, line, columnStart);
-      }
-      else if(lexeme.equals("nil")){
-        return new Token(TokenType.NIL, lexeme, line, columnStart);
-      }
-      else {
-        return new Token(TokenType.ID, lexeme, line, columnStart);
-      }
+      ch = peek();
     }
-    return new Token(TokenType.EOS, "", line, column);  
+    int length = pos - mark;
+    int h = keywordHash(buf[mark], buf[pos - 1], length);
+    String keyword = KEYWORDS[h];
+    if (keyword != null && isWord(keyword, length))
+      return accept(KEYWORD_TYPES[h], line, columnStart);
+    return accept(TokenType.ID, mark, length, line, columnStart);
+  }
+
+  // true if the characters scanned since mark spell the given word
+  private boolean isWord(String word, int length) {
+    if (word.length() != length)
+      return false;
+    for (int i = 0; i < length; ++i)
+      if (buf[mark + i] != word.charAt(i))
+        return false;
+    return true;
+  }
+
+  // the characters scanned since mark
+  private String lexeme() {
+    return new String(buf, mark, pos - mark);
   }
 }
@@ -0,0 +1,125 @@
+/**
+ * File: MappedReader.java
+ *
+ * Reader over a memory-mapped UTF-8 file. The file is mapped in
+ * windows (so files larger than 2 GB can be read), and bytes are
+ * decoded straight from the mapped region into the caller's array,
+ * with a fast path for runs of ASCII. Each new window starts at the
+ * first byte not yet decoded, so a multi-byte character split across
+ * two windows is decoded from the second one.
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+
+class MappedReader extends Reader {
+
+  static final long WINDOW_SIZE = 1L << 28;
+
+  private final FileChannel channel;
+  private final long fileSize;
+  private final long windowSize;
+  private final CharsetDecoder decoder;
+  private MappedByteBuffer window;
+  private long windowStart;     // file offset of the current window
+  private int pending = -1;     // low surrogate that did not fit
+
+  MappedReader(Path path) throws IOException {
+    this(path, WINDOW_SIZE);
+  }
+
+  MappedReader(Path path, long windowSize) throws IOException {
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    this.fileSize = channel.size();
+    // a window must hold at least one whole UTF-8 character
+    this.windowSize = Math.max(windowSize, 4);
+    this.decoder = StandardCharsets.UTF_8.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    map(0);
+  }
+
+  // maps the window starting at the given file offset
+  private void map(long start) throws IOException {
+    long size = Math.min(windowSize, fileSize - start);
+    windowStart = start;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+  }
+
+  // true if the current window reaches the end of the file
+  private boolean lastWindow() {
+    return windowStart + window.limit() == fileSize;
+  }
+
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    int n = 0;
+    if (pending != -1 && len > 0) {
+      cbuf[off + n++] = (char)pending;
+      pending = -1;
+    }
+    while (n < len) {
+      if (!window.hasRemaining()) {
+        if (lastWindow())
+          break;
+        map(windowStart + window.position());
+      }
+      // ASCII fast path
+      int p = window.position();
+      int end = Math.min(window.limit(), p + (len - n));
+      while (p < end) {
+        byte b = window.get(p);
+        if (b < 0)
+          break;
+        cbuf[off + n++] = (char)b;
+        ++p;
+      }
+      window.position(p);
+      if (n == len || !window.hasRemaining())
+        continue;
+      // decode the run of non-ASCII bytes, which ends on a character
+      // boundary unless it runs into the end of the window
+      int limit = window.limit();
+      int runEnd = p;
+      while (runEnd < limit && window.get(runEnd) < 0)
+        ++runEnd;
+      boolean complete = runEnd < limit || lastWindow();
+      CharBuffer out = CharBuffer.wrap(cbuf, off + n, len - n);
+      window.limit(runEnd);
+      decoder.reset();
+      CoderResult result = decoder.decode(window, out, complete);
+      window.limit(limit);
+      n = out.position() - off;
+      if (result.isOverflow()) {
+        if (n == 0)
+          n = splitPair(cbuf, off, complete);
+        break;
+      }
+      if (!complete && window.position() == p)
+        // only part of a character is left in this window
+        map(windowStart + p);
+    }
+    return n == 0 && len > 0 ? -1 : n;
+  }
+
+  // decodes a surrogate pair into a single free slot, keeping the low
+  // surrogate for the next read
+  private int splitPair(char[] cbuf, int off, boolean complete) {
+    CharBuffer pair = CharBuffer.allocate(2);
+    decoder.reset();
+    decoder.decode(window, pair, complete);
+    cbuf[off] = pair.get(0);
+    if (pair.position() > 1)
+      pending = pair.get(1);
+    return 1;
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
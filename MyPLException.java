@@ -4,18 +4,39 @@
  * 
  * Basic class for representing MyPL interpreter exceptions and
  * printing them as compile (interpreter) and runtime errors.
+ *
+ * The exceptions carry no Java stack trace: the error is located by
+ * its line and column in the MyPL source, and filling in the (deep,
+ * recursive) stack of the parser would make every error expensive.
  */
 
 
 public class MyPLException extends Exception {
 
   public MyPLException(String type, String message, int line, int column) {
+    super(null, null, false, false);
     this.type = type;
     this.message = message;
     this.line = line;
     this.column = column;
   }
 
+  public String type() {
+    return type;
+  }
+
+  public String message() {
+    return message;
+  }
+
+  public int line() {
+    return line;
+  }
+
+  public int column() {
+    return column;
+  }
+
   @Override
   public String toString() {
     return type + " error: " + message + " at line " + line + " column " + column;
@@ -0,0 +1,35 @@
+/**
+ * File: NodeKind.java
+ *
+ * The kinds of nodes in a SyntaxTree. Each node also refers to one
+ * token: the keyword that starts it, or for NAME, TYPE and VALUE
+ * nodes the token itself. The comments give the children of
+ * each kind, in order.
+ */
+
+public enum NodeKind {
+  PROGRAM,      // statements
+  TYPE_DECL,    // NAME, VAR_DECLs
+  FUN_DECL,     // TYPE (return type, or the nil token), NAME, PARAMs, BLOCK
+  PARAM,        // TYPE, NAME
+  BLOCK,        // statements (token: first token of the block)
+  VAR_DECL,     // optional TYPE, NAME, EXPR
+  ASSIGN,       // PATH, EXPR
+  IF,           // EXPR, BLOCK, ELIFs, optional ELSE
+  ELIF,         // EXPR, BLOCK
+  ELSE,         // BLOCK
+  WHILE,        // EXPR, BLOCK
+  FOR,          // NAME, EXPR, EXPR, BLOCK
+  RETURN,       // optional EXPR
+  EXPR,         // operand: BINARY, NOT, NEG or a primary (VALUEs if chained)
+  BINARY,       // left operand, right operand (token: the operator)
+  NOT,          // operand
+  NEG,          // operand
+  NEW,          // NAME
+  NIL,          // none
+  CALL,         // NAME, argument EXPRs
+  PATH,         // NAMEs separated by '.'
+  VALUE,        // none (token: the literal value)
+  NAME,         // none (token: the identifier)
+  TYPE          // none (token: the type)
+}
@@ -0,0 +1,186 @@
+/**
+ * File: ParallelLexer.java
+ *
+ * Lexes a large source in parallel. The source is cut into chunks that
+ * each end just after a newline, the chunks are lexed independently on
+ * a ForkJoinPool, and the results are stitched into one TokenBuffer
+ * with the same tokens, positions and first error as TokenBuffer.lex.
+ *
+ * This works because the lexer is in the same state at the start of
+ * every line (column 1, between tokens) unless a char value spans the
+ * line break, which is the only token allowed to. A chunk that ends
+ * inside a char value is detected (its lexer runs out of input inside
+ * the value), and the source is then lexed sequentially from the start
+ * of that chunk.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+public class ParallelLexer {
+
+  private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+  /**
+   * Lexes the first length characters of the given array on the
+   * common ForkJoinPool.
+   */
+  public static TokenBuffer lex(char[] source, int length) {
+    return lex(source, length, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Lexes the first length characters of the given array on the
+   * given pool.
+   */
+  public static TokenBuffer lex(char[] source, int length,
+                                ForkJoinPool pool) {
+    if (pool.getParallelism() == 1)
+      return TokenBuffer.lex(source, length);
+    int chunkSize = length / (4 * pool.getParallelism());
+    return lex(source, length, pool, Math.max(chunkSize, MIN_CHUNK_SIZE));
+  }
+
+  static TokenBuffer lex(char[] source, int length, ForkJoinPool pool,
+                         int chunkSize) {
+    List<Chunk> chunks = split(source, length, chunkSize);
+    if (chunks.size() == 1)
+      return TokenBuffer.lex(source, length);
+    pool.invoke(new RecursiveAction() {
+        protected void compute() {
+          invokeAll(chunks);
+        }
+      });
+    return stitch(source, length, chunks);
+  }
+
+
+  /* Helper Functions */
+
+  // cuts the source into chunks of about the given size, each ending
+  // just after a newline (or at the end of the source)
+  private static List<Chunk> split(char[] source, int length,
+                                   int chunkSize) {
+    List<Chunk> chunks = new ArrayList<>();
+    int start = 0;
+    do {
+      int end = start + chunkSize;
+      if (end >= length)
+        end = length;
+      else {
+        while (end < length && source[end - 1] != '\n')
+          ++end;
+      }
+      chunks.add(new Chunk(source, start, end, end == length));
+      start = end;
+    } while (start < length);
+    return chunks;
+  }
+
+  // joins the chunk results in order, shifting each chunk's lines by
+  // the lines of the chunks before it
+  private static TokenBuffer stitch(char[] source, int length,
+                                    List<Chunk> chunks) {
+    int capacity = 0;
+    for (Chunk c : chunks)
+      capacity += c.tokens.size();
+    TokenBuffer tokens = new TokenBuffer(source, capacity + 1);
+    int lineOffset = 0;
+    for (Chunk c : chunks) {
+      if (c.status == Chunk.SPLIT) {
+        int column = c.start == 0 ? 0 : 1;
+        tokens.lexFrom(new Lexer(source, c.start, length, lineOffset + 1,
+                                 column));
+        break;
+      }
+      tokens.append(c.tokens, 0, c.tokens.size(), lineOffset);
+      if (c.status == Chunk.FAILED) {
+        MyPLException e = c.error;
+        tokens.setError(new MyPLException(e.type(), e.message(),
+                                          e.line() + lineOffset,
+                                          e.column()));
+        break;
+      }
+      if (c.status == Chunk.STOPPED) {
+        // scan once past EOS, as the parser does, over the whole rest
+        // of the source
+        Lexer lexer = new Lexer(source, c.resumePosition, length,
+                                c.resumeLine + lineOffset, c.resumeColumn);
+        try {
+          lexer.scan();
+        } catch (MyPLException e) {
+          tokens.setError(e);
+        }
+        break;
+      }
+      lineOffset += c.endLine - 1;
+    }
+    tokens.trim();
+    return tokens;
+  }
+
+
+  /* Chunk Lexing */
+
+  // tasks are never serialized (ForkJoinTask is only Serializable
+  // by inheritance)
+  @SuppressWarnings("serial")
+  private static class Chunk extends RecursiveAction {
+
+    static final int DONE = 0;      // lexed through the end of the chunk
+    static final int STOPPED = 1;   // lexed through an EOS token
+    static final int FAILED = 2;    // lexical error inside the chunk
+    static final int SPLIT = 3;     // a char value runs past the chunk
+
+    final char[] source;
+    final int start;
+    final int end;
+    final boolean last;
+    TokenBuffer tokens;
+    int status;
+    int endLine;                    // lexer line at the end of the chunk
+    MyPLException error;
+    int resumePosition;             // lexer state right after EOS
+    int resumeLine;
+    int resumeColumn;
+
+    Chunk(char[] source, int start, int end, boolean last) {
+      this.source = source;
+      this.start = start;
+      this.end = end;
+      this.last = last;
+    }
+
+    // lexes the chunk with lines counted from 1
+    protected void compute() {
+      tokens = new TokenBuffer(source, (end - start)
+                                       / TokenBuffer.CHARS_PER_TOKEN);
+      Lexer lexer = new Lexer(source, start, end, 1, start == 0 ? 0 : 1);
+      try {
+        while (true) {
+          TokenType type = lexer.scan();
+          if (type == TokenType.EOS && !last && lexer.position() == end) {
+            status = DONE;
+            endLine = lexer.line();
+            return;
+          }
+          tokens.add(type, lexer.tokenStart(), lexer.tokenLength(),
+                     lexer.tokenLine(), lexer.tokenColumn());
+          if (type == TokenType.EOS) {
+            status = STOPPED;
+            resumePosition = lexer.position();
+            resumeLine = lexer.line();
+            resumeColumn = lexer.column();
+            return;
+          }
+        }
+      } catch (MyPLException e) {
+        // running out of input before the end of the source can only
+        // happen inside a char value
+        status = !last && lexer.position() == end ? SPLIT : FAILED;
+        error = e;
+      }
+    }
+  }
+}
@@ -0,0 +1,150 @@
+/**
+ * File: ParallelParser.java
+ *
+ * Parses a token stream with its top-level statements split across a
+ * ForkJoinPool. A pre-scan counts if/while/for/fun/type ... end
+ * nesting to find where each top-level fun and type declaration ends.
+ * The stream is then cut at those boundaries into groups of whole
+ * statements, and each group is parsed by its own Parser over its
+ * range of the TokenBuffer.
+ *
+ * The result is the same as parsing the whole stream with one Parser.
+ * Groups are checked in source order. A group that fails, or whose
+ * statements do not end exactly at its boundary (e.g. because the
+ * nesting of a broken program misled the pre-scan), is parsed again,
+ * together with the rest of the stream, by one sequential Parser. That
+ * Parser then reports the earliest error.
+ */
+
+import java.util.*;
+import java.util.concurrent.*;
+
+
+public class ParallelParser {
+
+  private static final int MIN_GROUP_SIZE = 4096;   // tokens per group
+
+  /**
+   * Parses the given tokens on the common ForkJoinPool. On error,
+   * throws a MyPLException.
+   */
+  public static void parse(TokenBuffer tokens) throws MyPLException {
+    parse(tokens, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Parses the given tokens on the given pool. On error, throws a
+   * MyPLException.
+   */
+  public static void parse(TokenBuffer tokens, ForkJoinPool pool)
+    throws MyPLException
+  {
+    int groupSize = tokens.size() / (4 * pool.getParallelism());
+    parse(tokens, pool, Math.max(groupSize, MIN_GROUP_SIZE));
+  }
+
+  static void parse(TokenBuffer tokens, ForkJoinPool pool, int groupSize)
+    throws MyPLException
+  {
+    List<Group> groups = split(tokens, groupSize);
+    if (groups.size() <= 1) {
+      new Parser(tokens).parse();
+      return;
+    }
+    pool.invoke(new RecursiveAction() {
+        protected void compute() {
+          invokeAll(groups);
+        }
+      });
+    for (Group g : groups) {
+      if (!g.aligned) {
+        new Parser(tokens, g.from, tokens.size()).parse();
+        return;
+      }
+    }
+  }
+
+
+  /* Helper Functions */
+
+  // true if the token type opens a block closed by 'end'
+  private static boolean opensBlock(TokenType t) {
+    return t == TokenType.IF || t == TokenType.WHILE || t == TokenType.FOR
+      || t == TokenType.FUN || t == TokenType.TYPE;
+  }
+
+  // index of the 'end' closing the block opened at i, or -1 if the
+  // block is not closed
+  private static int blockEnd(TokenBuffer tokens, int i) {
+    int depth = 0;
+    for (int n = tokens.size(); i < n; ++i) {
+      TokenType t = tokens.type(i);
+      if (opensBlock(t))
+        ++depth;
+      else if (t == TokenType.END && --depth == 0)
+        return i;
+    }
+    return -1;
+  }
+
+  // cuts the stream into groups of at least groupSize tokens, each
+  // ending after a top-level declaration or just before one
+  private static List<Group> split(TokenBuffer tokens, int groupSize) {
+    List<Group> groups = new ArrayList<>();
+    int n = tokens.size();
+    int from = 0;
+    int i = 0;
+    while (i < n) {
+      TokenType t = tokens.type(i);
+      if (t == TokenType.FUN || t == TokenType.TYPE) {
+        if (i - from >= groupSize) {
+          groups.add(new Group(tokens, from, i));
+          from = i;
+        }
+      }
+      if (opensBlock(t)) {
+        int j = blockEnd(tokens, i);
+        if (j < 0)
+          break;
+        i = j + 1;
+        if ((t == TokenType.FUN || t == TokenType.TYPE)
+            && i - from >= groupSize && i < n) {
+          groups.add(new Group(tokens, from, i));
+          from = i;
+        }
+      }
+      else
+        ++i;
+    }
+    groups.add(new Group(tokens, from, n));
+    return groups;
+  }
+
+
+  /* Group Parsing */
+
+  // tasks are never serialized (ForkJoinTask is only Serializable
+  // by inheritance)
+  @SuppressWarnings("serial")
+  private static class Group extends RecursiveAction {
+
+    final TokenBuffer tokens;
+    final int from;
+    final int to;
+    boolean aligned;        // parsed without error, ending at to
+
+    Group(TokenBuffer tokens, int from, int to) {
+      this.tokens = tokens;
+      this.from = from;
+      this.to = to;
+    }
+
+    protected void compute() {
+      try {
+        aligned = new Parser(tokens, from, to).parseRange();
+      } catch (MyPLException e) {
+        aligned = false;
+      }
+    }
+  }
+}
@@ -0,0 +1,211 @@
+/**
+ * File: ParseCache.java
+ *
+ * Caches parse results by file content, so that a file parsed before
+ * is not parsed again. The key is a SHA-256 hash of the parser version
+ * and the content; the result is success or the error the parse
+ * reported (its type, message, line and column).
+ *
+ * Results are kept in memory, in an LRU map of bounded size, and
+ * optionally on disk, one small file per key in a cache directory, so
+ * that they outlive the JVM. The parser version is a hash of the
+ * compiled classes that decide what parses and what trees a parse
+ * builds (Lexer, Parser, TokenType, NodeKind, SyntaxTree,
+ * MyPLException), computed once per JVM, so changing the grammar
+ * code makes all cached results miss. The cache is safe to use from
+ * several threads.
+ */
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+public class ParseCache {
+
+  private static final String[] GRAMMAR_CLASSES =
+    {"Lexer", "Parser", "TokenType", "NodeKind", "SyntaxTree",
+     "MyPLException"};
+  private static final byte[] VERSION = hashGrammar();
+  private static final MyPLException OK =
+    new MyPLException("Cache", "parsed", 0, 0);   // result of a success
+
+  private final byte[] version;
+  private final Path dir;                         // or null
+  private final Map<String, MyPLException> memory;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Creates a cache of up to maxEntries results in memory, also kept
+   * in the given directory (created if needed) unless it is null.
+   */
+  public ParseCache(int maxEntries, Path dir) throws IOException {
+    this.version = VERSION;
+    this.dir = dir;
+    if (dir != null)
+      Files.createDirectories(dir);
+    this.memory = Collections.synchronizedMap(
+      new LinkedHashMap<String, MyPLException>(16, 0.75f, true) {
+        protected boolean removeEldestEntry(
+          Map.Entry<String, MyPLException> eldest) {
+          return size() > maxEntries;
+        }
+      });
+  }
+
+  /**
+   * Parses the given file, or returns its cached result. On error,
+   * throws a MyPLException.
+   */
+  public void parse(Path file) throws IOException, MyPLException {
+    parse(Files.readAllBytes(file));
+  }
+
+  /**
+   * Parses the given UTF-8 source, or returns its cached result. On
+   * error, throws a MyPLException.
+   */
+  public void parse(byte[] source) throws IOException, MyPLException {
+    String key = key(source);
+    MyPLException result = memory.get(key);
+    if (result != null)
+      hits.incrementAndGet();
+    else {
+      result = load(key);
+      if (result != null)
+        diskHits.incrementAndGet();
+      else {
+        misses.incrementAndGet();
+        result = parseSource(source);
+        store(key, result);
+      }
+      memory.put(key, result);
+    }
+    if (result != OK)
+      throw result;
+  }
+
+  /**
+   * Returns the number of results found in memory.
+   */
+  public long hits() {
+    return hits.get();
+  }
+
+  /**
+   * Returns the number of results found on disk but not in memory.
+   */
+  public long diskHits() {
+    return diskHits.get();
+  }
+
+  /**
+   * Returns the number of sources that had to be parsed.
+   */
+  public long misses() {
+    return misses.get();
+  }
+
+  /**
+   * Returns the version hash of the parser, which cached results are
+   * only valid for.
+   */
+  public static byte[] grammarVersion() {
+    return VERSION.clone();
+  }
+
+  // hashes the names and class files of the grammar classes
+  private static byte[] hashGrammar() {
+    MessageDigest digest = sha256();
+    for (String name : GRAMMAR_CLASSES) {
+      try (InputStream in =
+             ParseCache.class.getResourceAsStream(name + ".class")) {
+        if (in == null)
+          throw new IllegalStateException("no class file for " + name);
+        digest.update(name.getBytes(StandardCharsets.UTF_8));
+        digest.update(in.readAllBytes());
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return digest.digest();
+  }
+
+
+  /* Helper Functions */
+
+  // the result of parsing the source: OK or its error
+  private static MyPLException parseSource(byte[] source) {
+    char[] text = new String(source, StandardCharsets.UTF_8).toCharArray();
+    try {
+      new Parser(new Lexer(text, text.length)).parse();
+      return OK;
+    } catch (MyPLException e) {
+      return e;
+    }
+  }
+
+  private String key(byte[] source) {
+    MessageDigest digest = sha256();
+    digest.update(version);
+    byte[] hash = digest.digest(source);
+    StringBuilder key = new StringBuilder(hash.length * 2);
+    for (byte b : hash)
+      key.append(Character.forDigit((b >> 4) & 0xf, 16))
+        .append(Character.forDigit(b & 0xf, 16));
+    return key.toString();
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // the result stored on disk for the key, or null if there is none
+  // (or it cannot be read). The file holds "ok", or "error" followed by
+  // the type, line, column and message on lines of their own.
+  private MyPLException load(String key) {
+    if (dir == null)
+      return null;
+    Path file = dir.resolve(key);
+    try {
+      String[] lines = new String(Files.readAllBytes(file),
+                                  StandardCharsets.UTF_8).split("\n", 5);
+      if (lines[0].equals("ok"))
+        return OK;
+      if (lines[0].equals("error") && lines.length == 5)
+        return new MyPLException(lines[1], lines[4],
+                                 Integer.parseInt(lines[2]),
+                                 Integer.parseInt(lines[3]));
+    } catch (IOException | NumberFormatException e) {
+      // a missing or damaged entry is a miss
+    }
+    return null;
+  }
+
+  // writes the result to disk, through a temporary file so that other
+  // readers never see it half written
+  private void store(String key, MyPLException result) throws IOException {
+    if (dir == null)
+      return;
+    String text = result == OK ? "ok\n"
+      : "error\n" + result.type() + "\n" + result.line() + "\n"
+        + result.column() + "\n" + result.message();
+    Path temp = Files.createTempFile(dir, key, ".tmp");
+    try {
+      Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+      Files.move(temp, dir.resolve(key), StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+}
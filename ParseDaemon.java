@@ -0,0 +1,297 @@
+/**
+ * File: ParseDaemon.java
+ *
+ * Long-running parse server, so that checking a file costs a parse in
+ * an already warmed-up JVM rather than a JVM start and a cold parser.
+ * Requests come over a Unix domain socket (one connection per client,
+ * any number of clients) or over standard input, one per line:
+ *
+ *   file PATH        parse the UTF-8 file at PATH
+ *   source LENGTH    parse the LENGTH bytes of UTF-8 source that follow
+ *                    the line
+ *   quit             close the connection
+ *
+ * and each gets one line of JSON in reply, e.g.
+ *
+ *   {"ok":false,"micros":412,"errors":[{"type":"Parser",
+ *    "message":"expecting ID","line":3,"column":8}]}
+ *
+ * (on one line), with up to -k errors found in recovery mode, or
+ * {"ok":false,"failure":"..."} for a request that could not be served
+ * (including one whose parse threw, e.g. on overly deep nesting).
+ * Clients are served on virtual threads, with at most -j requests read
+ * and parsed at once (default: the number of processors), and sources
+ * of at most -max-source bytes (default 64 MB); a longer source is
+ * refused before it is read, and ends its connection. Before serving,
+ * the parser is warmed up on generated programs for -warmup ms.
+ *
+ * Usage: java ParseDaemon [-j N] [-k N] [-max-source BYTES] [-warmup MS]
+ *                         (-socket PATH | -stdin)
+ */
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+
+public class ParseDaemon {
+
+  private static final int MAX_LINE = 1 << 16;    // bytes in a request line
+
+  private final Semaphore permits;
+  private final int maxErrors;
+  private final int maxSource;
+
+  public ParseDaemon(int parallelism, int maxErrors, int maxSource) {
+    this.permits = new Semaphore(parallelism);
+    this.maxErrors = maxErrors;
+    this.maxSource = maxSource;
+  }
+
+  public static void main(String[] args) {
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    int maxErrors = 20;
+    int maxSource = 64 << 20;
+    long warmup = 2000;
+    String socket = null;
+    boolean stdin = false;
+    boolean usage = false;
+    for (int i = 0; i < args.length; ++i) {
+      if (args[i].equals("-j") && i + 1 < args.length)
+        parallelism = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-k") && i + 1 < args.length)
+        maxErrors = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-max-source") && i + 1 < args.length)
+        maxSource = Integer.parseInt(args[++i]);
+      else if (args[i].equals("-warmup") && i + 1 < args.length)
+        warmup = Long.parseLong(args[++i]);
+      else if (args[i].equals("-socket") && i + 1 < args.length)
+        socket = args[++i];
+      else if (args[i].equals("-stdin"))
+        stdin = true;
+      else
+        usage = true;
+    }
+    if (usage || (socket != null) == stdin || parallelism < 1
+        || maxErrors < 1 || maxSource < 0) {
+      System.out.println("usage: java ParseDaemon [-j N] [-k N]"
+                         + " [-max-source BYTES] [-warmup MS]"
+                         + " (-socket PATH | -stdin)");
+      System.exit(2);
+    }
+    ParseDaemon daemon = new ParseDaemon(parallelism, maxErrors, maxSource);
+    try {
+      daemon.warmUp(warmup);
+      if (stdin)
+        daemon.serve(System.in, System.out);
+      else
+        daemon.listen(Paths.get(socket));
+    } catch (IOException e) {
+      System.err.println("I/O error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Accepts clients on a Unix domain socket at the given path (which
+   * is replaced if it exists) until the JVM exits.
+   */
+  public void listen(Path path) throws IOException {
+    Files.deleteIfExists(path);
+    try (ServerSocketChannel server =
+           ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+         ExecutorService clients =
+           Executors.newVirtualThreadPerTaskExecutor()) {
+      server.bind(UnixDomainSocketAddress.of(path));
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+          try {
+            Files.deleteIfExists(path);
+          } catch (IOException e) {
+            // nothing left to do about it
+          }
+        }));
+      System.err.println("listening on " + path);
+      while (true) {
+        SocketChannel client = server.accept();
+        clients.submit(() -> {
+            try (SocketChannel c = client) {
+              serve(Channels.newInputStream(c), Channels.newOutputStream(c));
+            } catch (IOException e) {
+              // the client went away
+            }
+            return null;
+          });
+      }
+    }
+  }
+
+  /**
+   * Answers the requests read from the given stream until it ends or
+   * a quit request.
+   */
+  public void serve(InputStream in, OutputStream out) throws IOException {
+    InputStream input = new BufferedInputStream(in);
+    OutputStream output = new BufferedOutputStream(out);
+    String line;
+    while ((line = readLine(input)) != null) {
+      String reply;
+      if (line.equals("quit"))
+        break;
+      else if (line.startsWith("file "))
+        reply = parseFile(line.substring(5));
+      else if (line.startsWith("source ")) {
+        int length;
+        try {
+          length = Integer.parseInt(line.substring(7).trim());
+        } catch (NumberFormatException e) {
+          length = -1;
+        }
+        if (length < 0 || length > maxSource) {
+          reply = failure(length < 0 ? "bad source length"
+                          : "source longer than " + maxSource + " bytes");
+          write(output, reply);
+          break;              // the rest of the stream cannot be framed
+        }
+        reply = parseSource(input, length);
+        if (reply == null)
+          break;
+      }
+      else if (line.isEmpty())
+        continue;
+      else
+        reply = failure("unknown request");
+      write(output, reply);
+    }
+    output.flush();
+  }
+
+  /**
+   * Parses generated programs for about the given time, so that the
+   * Lexer and Parser are compiled before the first request.
+   */
+  public void warmUp(long millis) throws IOException {
+    CorpusGenerator generator = new CorpusGenerator(1);
+    generator.setSize(64 << 10);
+    generator.setErrorRate(0.05);
+    StringWriter text = new StringWriter();
+    generator.write(text);
+    byte[] source = text.toString().getBytes(StandardCharsets.UTF_8);
+    long until = System.nanoTime() + millis * 1000000;
+    while (System.nanoTime() < until)
+      parse(source);
+  }
+
+
+  /* Helper Functions */
+
+  // reads and parses the file, holding a permit while doing so
+  private String parseFile(String file) {
+    permits.acquireUninterruptibly();
+    try {
+      byte[] source;
+      try {
+        source = Files.readAllBytes(Paths.get(file));
+      } catch (IOException | InvalidPathException e) {
+        return failure("Unable to open file '" + file + "'");
+      }
+      return parse(source);
+    } finally {
+      permits.release();
+    }
+  }
+
+  // reads the given number of source bytes from the stream and parses
+  // them, holding a permit while doing so; returns null if the stream
+  // ends first
+  private String parseSource(InputStream input, int length)
+    throws IOException
+  {
+    permits.acquireUninterruptibly();
+    try {
+      byte[] source = input.readNBytes(length);
+      if (source.length < length)
+        return null;
+      return parse(source);
+    } finally {
+      permits.release();
+    }
+  }
+
+  // parses the source in recovery mode and returns the reply; anything
+  // the parse throws becomes a failure reply
+  private String parse(byte[] source) {
+    Diagnostics diagnostics = new Diagnostics(maxErrors);
+    long start = System.nanoTime();
+    boolean ok;
+    try {
+      char[] text = new String(source, StandardCharsets.UTF_8).toCharArray();
+      ok = new Parser(new Lexer(text, text.length)).check(diagnostics);
+    } catch (Throwable e) {
+      return failure("parse failed: " + e.getClass().getName());
+    }
+    long micros = (System.nanoTime() - start) / 1000;
+    StringBuilder reply = new StringBuilder(64);
+    reply.append("{\"ok\":").append(ok).append(",\"micros\":").append(micros)
+      .append(",\"errors\":[");
+    for (int i = 0; i < diagnostics.size(); ++i) {
+      if (i > 0)
+        reply.append(',');
+      reply.append("{\"type\":");
+      quote(reply, diagnostics.type(i));
+      reply.append(",\"message\":");
+      quote(reply, diagnostics.message(i));
+      reply.append(",\"line\":").append(diagnostics.line(i))
+        .append(",\"column\":").append(diagnostics.column(i)).append('}');
+    }
+    return reply.append("]}").toString();
+  }
+
+  private static String failure(String message) {
+    StringBuilder reply = new StringBuilder("{\"ok\":false,\"failure\":");
+    quote(reply, message);
+    return reply.append('}').toString();
+  }
+
+  // appends the string as a JSON string literal
+  private static void quote(StringBuilder out, String s) {
+    out.append('"');
+    for (int i = 0; i < s.length(); ++i) {
+      char c = s.charAt(i);
+      if (c == '"' || c == '\\')
+        out.append('\\').append(c);
+      else if (c < 0x20)
+        out.append(String.format("\\u%04x", (int)c));
+      else
+        out.append(c);
+    }
+    out.append('"');
+  }
+
+  private static void write(OutputStream out, String line)
+    throws IOException
+  {
+    out.write(line.getBytes(StandardCharsets.UTF_8));
+    out.write('\n');
+    out.flush();
+  }
+
+  // the next line of the stream without its line end, or null at the
+  // end of the stream
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+    int b;
+    while ((b = in.read()) != -1 && b != '\n') {
+      if (line.size() == MAX_LINE)
+        throw new IOException("request line too long");
+      line.write(b);
+    }
+    if (b == -1 && line.size() == 0)
+      return null;
+    String s = line.toString(StandardCharsets.UTF_8);
+    return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+  }
+}
@@ -0,0 +1,323 @@
+/**
+ * File: ParseImage.java
+ *
+ * A binary image of a lexed and parsed program: the token arrays of a
+ * TokenBuffer, the node arrays of its SyntaxTree (if it parsed), the
+ * source text the lexemes are in, and the program's error (if any).
+ * One stage writes the image once; later stages memory-map it and
+ * read tokens and nodes in place, without decoding or parsing, so
+ * opening an image costs about the same for any program size.
+ *
+ * The file is little-endian and laid out as
+ *
+ *   header   magic "MYPL", format version, parser version (the 32-byte
+ *            ParseCache.grammarVersion()), token count, node count,
+ *            source length in chars
+ *   tokens   type ordinals (bytes), then starts, lengths, lines and
+ *            columns (ints)
+ *   nodes    kind ordinals (bytes), then first children, next siblings
+ *            and token indexes (ints)
+ *   source   UTF-16 chars, through the end of the last lexeme
+ *   error    flag, line, column, then type and message as UTF-8
+ *
+ * with each section starting on a 4-byte boundary. An image is only
+ * opened by the parser version that wrote it, since token and node
+ * ordinals change with the grammar. Images are limited to 2 GB.
+ *
+ * Usage: java ParseImage file.mypl image   (lex, parse and write)
+ *        java ParseImage image             (open and summarize)
+ */
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+
+
+public class ParseImage {
+
+  private static final int MAGIC = 0x4c50594d;    // "MYPL"
+  private static final int FORMAT = 1;
+  private static final int HEADER_SIZE = 64;
+  private static final TokenType[] TYPES = TokenType.values();
+  private static final NodeKind[] KINDS = NodeKind.values();
+
+  private final ByteBuffer image;
+  private final int tokenCount;
+  private final int nodeCount;
+  private final int sourceLength;
+  // section offsets
+  private final int types, starts, lengths, lines, columns;
+  private final int kinds, firstChild, nextSibling, tokenIndex;
+  private final int source, error;
+
+  private ParseImage(ByteBuffer image) throws IOException {
+    this.image = image.order(ByteOrder.LITTLE_ENDIAN);
+    if (image.limit() < HEADER_SIZE || image.getInt(0) != MAGIC)
+      throw new IOException("not a parse image");
+    if (image.getInt(4) != FORMAT)
+      throw new IOException("unsupported parse image format "
+                            + image.getInt(4));
+    byte[] version = new byte[32];
+    image.get(8, version);
+    if (!Arrays.equals(version, ParseCache.grammarVersion()))
+      throw new IOException("parse image written by another parser version");
+    tokenCount = image.getInt(40);
+    nodeCount = image.getInt(44);
+    sourceLength = image.getInt(48);
+    long[] at = layout(tokenCount, nodeCount, sourceLength);
+    if (at[11] > image.limit())
+      throw new IOException("truncated parse image");
+    types = (int)at[0];
+    starts = (int)at[1];
+    lengths = (int)at[2];
+    lines = (int)at[3];
+    columns = (int)at[4];
+    kinds = (int)at[5];
+    firstChild = (int)at[6];
+    nextSibling = (int)at[7];
+    tokenIndex = (int)at[8];
+    source = (int)at[9];
+    error = (int)at[10];
+  }
+
+  public static void main(String[] args) {
+    if (args.length != 1 && args.length != 2) {
+      System.out.println("usage: java ParseImage file.mypl image"
+                         + " | java ParseImage image");
+      System.exit(2);
+    }
+    try {
+      long start = System.nanoTime();
+      if (args.length == 2) {
+        TokenBuffer tokens;
+        try (Reader reader = new MappedReader(Paths.get(args[0]))) {
+          tokens = TokenBuffer.read(reader);
+        }
+        try {
+          write(Paths.get(args[1]), new Parser(tokens).parseTree());
+        } catch (MyPLException e) {
+          write(Paths.get(args[1]), tokens, e);
+        }
+      }
+      ParseImage image = open(Paths.get(args[args.length - 1]));
+      long millis = (System.nanoTime() - start) / 1000000;
+      MyPLException e = image.error();
+      System.out.println(image.tokenCount() + " tokens, " + image.nodeCount()
+                         + " nodes, " + (e == null ? "ok" : e.toString())
+                         + " (" + millis + " ms)");
+    } catch (IOException e) {
+      System.out.println("I/O error: " + e.getMessage());
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Writes the image of a parsed program: its tree and the tokens it
+   * was parsed from.
+   */
+  public static void write(Path file, SyntaxTree tree) throws IOException {
+    write(file, tree.tokens(), tree, null);
+  }
+
+  /**
+   * Writes the image of a program without a tree (e.g. one that only
+   * was lexed, or that failed to parse): its tokens and its error, or
+   * null if it has none.
+   */
+  public static void write(Path file, TokenBuffer tokens, MyPLException error)
+    throws IOException
+  {
+    write(file, tokens, null, error);
+  }
+
+  /**
+   * Maps the given image file. The file must not change while the
+   * image is in use.
+   */
+  public static ParseImage open(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file,
+                                                StandardOpenOption.READ)) {
+      if (channel.size() > Integer.MAX_VALUE)
+        throw new IOException("parse image too large");
+      return new ParseImage(
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  public int tokenCount() {
+    return tokenCount;
+  }
+
+  public TokenType type(int i) {
+    return TYPES[image.get(types + i)];
+  }
+
+  public int start(int i) {
+    return image.getInt(starts + 4 * i);
+  }
+
+  public int length(int i) {
+    return image.getInt(lengths + 4 * i);
+  }
+
+  public int line(int i) {
+    return image.getInt(lines + 4 * i);
+  }
+
+  public int column(int i) {
+    return image.getInt(columns + 4 * i);
+  }
+
+  /**
+   * Returns the lexeme of the i-th token.
+   */
+  public String lexeme(int i) {
+    String fixed = Lexer.fixedLexeme(type(i));
+    if (fixed != null)
+      return fixed;
+    char[] text = new char[length(i)];
+    int at = source + 2 * start(i);
+    for (int k = 0; k < text.length; ++k)
+      text[k] = image.getChar(at + 2 * k);
+    return new String(text);
+  }
+
+  /**
+   * Returns the number of nodes in the tree, which is 0 if the image
+   * has no tree.
+   */
+  public int nodeCount() {
+    return nodeCount;
+  }
+
+  /**
+   * Returns the root node (the PROGRAM), or SyntaxTree.NONE if the
+   * image has no tree.
+   */
+  public int root() {
+    return nodeCount == 0 ? SyntaxTree.NONE : 0;
+  }
+
+  public NodeKind kind(int node) {
+    return KINDS[image.get(kinds + node)];
+  }
+
+  public int firstChild(int node) {
+    return image.getInt(firstChild + 4 * node);
+  }
+
+  public int nextSibling(int node) {
+    return image.getInt(nextSibling + 4 * node);
+  }
+
+  /**
+   * Returns the index of the token the node refers to.
+   */
+  public int token(int node) {
+    return image.getInt(tokenIndex + 4 * node);
+  }
+
+  /**
+   * Returns the program's error, or null if it has none.
+   */
+  public MyPLException error() {
+    if (image.getInt(error) == 0)
+      return null;
+    byte[] type = new byte[image.getInt(error + 12)];
+    byte[] message = new byte[image.getInt(error + 16)];
+    image.get(error + 20, type);
+    image.get(error + 20 + type.length, message);
+    return new MyPLException(new String(type, StandardCharsets.UTF_8),
+                             new String(message, StandardCharsets.UTF_8),
+                             image.getInt(error + 4), image.getInt(error + 8));
+  }
+
+
+  /* Helper Functions */
+
+  // the offsets of the sections of an image with the given counts, in
+  // the order they are stored, followed by the size of the image
+  // without its error strings
+  private static long[] layout(int tokenCount, int nodeCount,
+                               int sourceLength) {
+    long[] at = new long[12];
+    long offset = HEADER_SIZE;
+    at[0] = offset;
+    offset = align(offset + tokenCount);
+    for (int k = 1; k <= 4; ++k) {
+      at[k] = offset;
+      offset += 4L * tokenCount;
+    }
+    at[5] = offset;
+    offset = align(offset + nodeCount);
+    for (int k = 6; k <= 8; ++k) {
+      at[k] = offset;
+      offset += 4L * nodeCount;
+    }
+    at[9] = offset;
+    offset = align(offset + 2L * sourceLength);
+    at[10] = offset;
+    at[11] = offset + 20;
+    return at;
+  }
+
+  private static long align(long offset) {
+    return (offset + 3) & ~3L;
+  }
+
+  private static void write(Path file, TokenBuffer tokens, SyntaxTree tree,
+                            MyPLException e) throws IOException {
+    int tokenCount = tokens.size();
+    int nodeCount = tree == null ? 0 : tree.size();
+    // only the text through the last lexeme is kept
+    int sourceLength = 0;
+    for (int i = 0; i < tokenCount; ++i)
+      sourceLength = Math.max(sourceLength, tokens.start(i) + tokens.length(i));
+    byte[] type = e == null ? new byte[0]
+      : e.type().getBytes(StandardCharsets.UTF_8);
+    byte[] message = e == null ? new byte[0]
+      : e.message().getBytes(StandardCharsets.UTF_8);
+    long[] at = layout(tokenCount, nodeCount, sourceLength);
+    long size = at[11] + type.length + message.length;
+    if (size > Integer.MAX_VALUE)
+      throw new IOException("parse image too large");
+    try (FileChannel channel = FileChannel.open(
+           file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+           StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      ByteBuffer image = channel.map(FileChannel.MapMode.READ_WRITE, 0, size)
+        .order(ByteOrder.LITTLE_ENDIAN);
+      image.putInt(0, MAGIC);
+      image.putInt(4, FORMAT);
+      image.put(8, ParseCache.grammarVersion());
+      image.putInt(40, tokenCount);
+      image.putInt(44, nodeCount);
+      image.putInt(48, sourceLength);
+      for (int i = 0; i < tokenCount; ++i) {
+        image.put((int)at[0] + i, (byte)tokens.type(i).ordinal());
+        image.putInt((int)at[1] + 4 * i, tokens.start(i));
+        image.putInt((int)at[2] + 4 * i, tokens.length(i));
+        image.putInt((int)at[3] + 4 * i, tokens.line(i));
+        image.putInt((int)at[4] + 4 * i, tokens.column(i));
+      }
+      for (int n = 0; n < nodeCount; ++n) {
+        image.put((int)at[5] + n, (byte)tree.kind(n).ordinal());
+        image.putInt((int)at[6] + 4 * n, tree.firstChild(n));
+        image.putInt((int)at[7] + 4 * n, tree.nextSibling(n));
+        image.putInt((int)at[8] + 4 * n, tree.token(n));
+      }
+      tokens.getSource(sourceLength, image.slice((int)at[9], 2 * sourceLength)
+                       .order(ByteOrder.LITTLE_ENDIAN).asCharBuffer());
+      int err = (int)at[10];
+      image.putInt(err, e == null ? 0 : 1);
+      image.putInt(err + 4, e == null ? 0 : e.line());
+      image.putInt(err + 8, e == null ? 0 : e.column());
+      image.putInt(err + 12, type.length);
+      image.putInt(err + 16, message.length);
+      image.put(err + 20, type);
+      image.put(err + 20 + type.length, message);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * File: ParseListener.java
+ *
+ * Receives the events of a parse as it happens (see
+ * Parser.setListener), so that callers can compute metrics, build
+ * indexes or stream output without the parser keeping a tree. The
+ * productions are the node kinds of a SyntaxTree: each node is
+ * reported by enter() and, once its children and tokens have been,
+ * exit(). Each token the parser consumes is reported once, in source
+ * order, inside the innermost node open at the time.
+ *
+ * Nodes are entered when the parser decides on them, which for a few
+ * is after their first tokens: a BINARY node is entered after its left
+ * operand (so its operator is its first token), a CALL or PATH in an
+ * expression after its first ID, and the TYPE of "var T x := ..." after
+ * T. An error ends the parse without exiting the nodes it was in,
+ * except in recovery mode, where the nodes the error abandons are
+ * exited before the parser skips ahead.
+ *
+ * The methods do nothing by default, so a listener overrides only the
+ * events it needs.
+ */
+
+public interface ParseListener {
+
+  /**
+   * Called when the parser starts a node of the given kind.
+   */
+  default void enter(NodeKind kind) {
+  }
+
+  /**
+   * Called when the parser finishes the node last entered, which is of
+   * the given kind.
+   */
+  default void exit(NodeKind kind) {
+  }
+
+  /**
+   * Called when the parser consumes the given token.
+   */
+  default void token(Token token) {
+  }
+}
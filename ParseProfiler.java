@@ -0,0 +1,267 @@
+/**
+ * File: ParseProfiler.java
+ *
+ * A ParseListener that profiles the productions of a parse: for each
+ * node kind, how often it was parsed, the tokens it consumed, and the
+ * time spent in it, both in total and excluding its children (self
+ * time); and for each token type, how many tokens of it were consumed.
+ * The counters can be read at any time, printed as a report sorted by
+ * self time, and recorded to JDK Flight Recorder:
+ *
+ *   mypl.Parse                one event per program parsed, with its
+ *                             duration, token count and whether an
+ *                             error ended it
+ *   mypl.ProductionStatistics the counters of one node kind, emitted
+ *                             for each kind by commit()
+ *
+ * A node's tokens are those consumed while it is open, which leaves
+ * out the first ID of a CALL or PATH in an expression and the type of
+ * "var T x" (see ParseListener).
+ *
+ * Profiling costs a clock read per node entered and exited; a parser
+ * without a listener pays only a null check per event. A profiler may
+ * profile several parses, but only one at a time (use one per thread
+ * and add() them together). Since an error ends a parse without
+ * exiting its nodes, call finish() after a parse that may have failed;
+ * otherwise the open nodes are dropped when the next program starts.
+ */
+
+import java.io.PrintStream;
+import java.util.*;
+import jdk.jfr.*;
+
+
+public class ParseProfiler implements ParseListener {
+
+  private static final NodeKind[] KINDS = NodeKind.values();
+  private static final TokenType[] TYPES = TokenType.values();
+
+  // counters by node kind ordinal
+  private final long[] counts = new long[KINDS.length];
+  private final long[] tokens = new long[KINDS.length];
+  private final long[] nanos = new long[KINDS.length];
+  private final long[] selfNanos = new long[KINDS.length];
+  // counters by token type ordinal
+  private final long[] tokenCounts = new long[TYPES.length];
+  private long tokenTotal;
+
+  // the nodes being parsed: when each started, the token count then,
+  // and the time spent in its children so far
+  private long[] startNanos = new long[64];
+  private long[] startTokens = new long[64];
+  private long[] childNanos = new long[64];
+  private int depth;
+  private ParseEvent parseEvent;
+
+  @Name("mypl.Parse")
+  @Label("MyPL Parse")
+  @Category("MyPL")
+  @Description("The parse of one program")
+  static class ParseEvent extends Event {
+    @Label("Tokens")
+    long tokens;
+    @Label("Failed")
+    boolean failed;
+  }
+
+  @Name("mypl.ProductionStatistics")
+  @Label("MyPL Production Statistics")
+  @Category("MyPL")
+  @Description("Counters of one kind of syntax tree node")
+  static class ProductionEvent extends Event {
+    @Label("Production")
+    String production;
+    @Label("Count")
+    long count;
+    @Label("Tokens")
+    long tokens;
+    @Label("Total Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long totalTime;
+    @Label("Self Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long selfTime;
+  }
+
+  @Override
+  public void enter(NodeKind kind) {
+    if (depth == startNanos.length) {
+      startNanos = Arrays.copyOf(startNanos, depth * 2);
+      startTokens = Arrays.copyOf(startTokens, depth * 2);
+      childNanos = Arrays.copyOf(childNanos, depth * 2);
+    }
+    if (kind == NodeKind.PROGRAM) {
+      // a program is outermost, so nodes still open are from a parse an
+      // error ended (whose event is dropped, as its end time is lost)
+      depth = 0;
+      parseEvent = new ParseEvent();
+      parseEvent.begin();
+    }
+    startTokens[depth] = tokenTotal;
+    childNanos[depth] = 0;
+    startNanos[depth++] = System.nanoTime();
+  }
+
+  @Override
+  public void exit(NodeKind kind) {
+    long elapsed = System.nanoTime() - startNanos[--depth];
+    int k = kind.ordinal();
+    ++counts[k];
+    tokens[k] += tokenTotal - startTokens[depth];
+    nanos[k] += elapsed;
+    selfNanos[k] += elapsed - childNanos[depth];
+    if (depth > 0)
+      childNanos[depth - 1] += elapsed;
+    if (kind == NodeKind.PROGRAM && parseEvent != null) {
+      parseEvent.tokens = tokenTotal - startTokens[depth];
+      parseEvent.commit();
+      parseEvent = null;
+    }
+  }
+
+  @Override
+  public void token(Token token) {
+    ++tokenCounts[token.type().ordinal()];
+    ++tokenTotal;
+  }
+
+  /**
+   * Ends the parse being profiled, if an error ended it before it was
+   * complete: records its mypl.Parse event as failed, with the tokens
+   * consumed so far, and drops the nodes left open (which are not
+   * counted). Does nothing if the last parse completed.
+   */
+  public void finish() {
+    if (parseEvent != null) {
+      parseEvent.end();
+      parseEvent.tokens = tokenTotal - startTokens[0];
+      parseEvent.failed = true;
+      parseEvent.commit();
+      parseEvent = null;
+    }
+    depth = 0;
+  }
+
+  /**
+   * Returns the number of nodes of the given kind parsed.
+   */
+  public long count(NodeKind kind) {
+    return counts[kind.ordinal()];
+  }
+
+  /**
+   * Returns the number of tokens consumed in nodes of the given kind
+   * (including their children).
+   */
+  public long tokens(NodeKind kind) {
+    return tokens[kind.ordinal()];
+  }
+
+  /**
+   * Returns the time spent in nodes of the given kind, including their
+   * children, in nanoseconds.
+   */
+  public long nanos(NodeKind kind) {
+    return nanos[kind.ordinal()];
+  }
+
+  /**
+   * Returns the time spent in nodes of the given kind, excluding their
+   * children, in nanoseconds.
+   */
+  public long selfNanos(NodeKind kind) {
+    return selfNanos[kind.ordinal()];
+  }
+
+  /**
+   * Returns the number of tokens of the given type consumed.
+   */
+  public long tokenCount(TokenType type) {
+    return tokenCounts[type.ordinal()];
+  }
+
+  /**
+   * Adds the counters of the given profiler to this one's.
+   */
+  public void add(ParseProfiler other) {
+    for (int k = 0; k < KINDS.length; ++k) {
+      counts[k] += other.counts[k];
+      tokens[k] += other.tokens[k];
+      nanos[k] += other.nanos[k];
+      selfNanos[k] += other.selfNanos[k];
+    }
+    for (int t = 0; t < TYPES.length; ++t)
+      tokenCounts[t] += other.tokenCounts[t];
+    tokenTotal += other.tokenTotal;
+  }
+
+  /**
+   * Sets all counters to zero, and drops a parse left open by an error
+   * without recording it.
+   */
+  public void reset() {
+    depth = 0;
+    parseEvent = null;
+    Arrays.fill(counts, 0);
+    Arrays.fill(tokens, 0);
+    Arrays.fill(nanos, 0);
+    Arrays.fill(selfNanos, 0);
+    Arrays.fill(tokenCounts, 0);
+    tokenTotal = 0;
+  }
+
+  /**
+   * Records the counters of each node kind parsed as a
+   * mypl.ProductionStatistics event (if Flight Recorder is recording
+   * them).
+   */
+  public void commit() {
+    for (NodeKind kind : KINDS) {
+      int k = kind.ordinal();
+      if (counts[k] == 0)
+        continue;
+      ProductionEvent event = new ProductionEvent();
+      if (!event.isEnabled())
+        return;
+      event.production = kind.name();
+      event.count = counts[k];
+      event.tokens = tokens[k];
+      event.totalTime = nanos[k];
+      event.selfTime = selfNanos[k];
+      event.commit();
+    }
+  }
+
+  /**
+   * Prints the counters of the node kinds parsed, by decreasing self
+   * time, then the token counts by decreasing count.
+   */
+  public void print(PrintStream out) {
+    List<NodeKind> kinds = new ArrayList<>();
+    for (NodeKind kind : KINDS)
+      if (counts[kind.ordinal()] > 0)
+        kinds.add(kind);
+    kinds.sort((a, b) -> Long.compare(selfNanos[b.ordinal()],
+                                      selfNanos[a.ordinal()]));
+    long total = 0;
+    for (long n : selfNanos)
+      total += n;
+    out.printf("%-10s %10s %10s %10s %10s %6s%n", "production", "count",
+               "tokens", "total ms", "self ms", "self%");
+    for (NodeKind kind : kinds) {
+      int k = kind.ordinal();
+      out.printf("%-10s %10d %10d %10.2f %10.2f %6.1f%n", kind, counts[k],
+                 tokens[k], nanos[k] / 1e6, selfNanos[k] / 1e6,
+                 total == 0 ? 0.0 : 100.0 * selfNanos[k] / total);
+    }
+    List<TokenType> types = new ArrayList<>();
+    for (TokenType type : TYPES)
+      if (tokenCounts[type.ordinal()] > 0)
+        types.add(type);
+    types.sort((a, b) -> Long.compare(tokenCounts[b.ordinal()],
+                                      tokenCounts[a.ordinal()]));
+    out.printf("%n%-18s %10s%n", "token", "count");
+    for (TokenType type : types)
+      out.printf("%-18s %10d%n", type, tokenCounts[type.ordinal()]);
+  }
+}
@@ -12,9 +12,69 @@ import java.util.*;
 
 
 public class Parser {
+
+  // binding powers of the binary operators (0 for any other token);
+  // all are left associative
+  private static final int[] BINDING_POWER =
+    new int[TokenType.values().length];
+  private static final int NOT_POWER = 2;   // 'not a = b' is not (a = b)
+  private static final int NEG_POWER = 6;   // tighter than any operator
+
+  // token sets for the is...() predicates, as bitmasks over ordinals
+  private static final long TYPES = bits(
+    TokenType.INT_TYPE, TokenType.DOUBLE_TYPE, TokenType.BOOL_TYPE,
+    TokenType.CHAR_TYPE, TokenType.STRING_TYPE, TokenType.ID);
+  private static final long OPERATORS = bits(
+    TokenType.PLUS, TokenType.MINUS, TokenType.DIVIDE, TokenType.MULTIPLY,
+    TokenType.MODULO, TokenType.AND, TokenType.OR, TokenType.EQUAL,
+    TokenType.LESS_THAN, TokenType.GREATER_THAN, TokenType.LESS_THAN_EQUAL,
+    TokenType.GREATER_THAN_EQUAL, TokenType.NOT_EQUAL);
+  private static final long EXPR_STARTS = bits(
+    TokenType.NIL, TokenType.NEW, TokenType.NEG, TokenType.INT_VAL,
+    TokenType.DOUBLE_VAL, TokenType.BOOL_VAL, TokenType.CHAR_VAL,
+    TokenType.STRING_VAL, TokenType.ID, TokenType.LPAREN);
+  private static final long BSTMT_STARTS = EXPR_STARTS | bits(
+    TokenType.VAR, TokenType.SET, TokenType.IF, TokenType.WHILE,
+    TokenType.FOR, TokenType.RETURN, TokenType.NOT, TokenType.ASSIGN);
+  // thrown in recovery mode to unwind from an error already reported to
+  // the sink; shared, since it carries nothing
+  private static final MyPLException REPORTED =
+    new MyPLException("Parser", "error reported", 0, 0);
+  // where recovery mode resumes after an error
+  private static final long SYNC = bits(
+    TokenType.VAR, TokenType.SET, TokenType.IF, TokenType.WHILE,
+    TokenType.FOR, TokenType.RETURN, TokenType.FUN, TokenType.TYPE,
+    TokenType.END, TokenType.EOS);
+
+  static {
+    BINDING_POWER[TokenType.OR.ordinal()] = 1;
+    BINDING_POWER[TokenType.AND.ordinal()] = 2;
+    for (TokenType t : new TokenType[] {
+        TokenType.EQUAL, TokenType.NOT_EQUAL, TokenType.LESS_THAN,
+        TokenType.LESS_THAN_EQUAL, TokenType.GREATER_THAN,
+        TokenType.GREATER_THAN_EQUAL})
+      BINDING_POWER[t.ordinal()] = 3;
+    BINDING_POWER[TokenType.PLUS.ordinal()] = 4;
+    BINDING_POWER[TokenType.MINUS.ordinal()] = 4;
+    BINDING_POWER[TokenType.MULTIPLY.ordinal()] = 5;
+    BINDING_POWER[TokenType.DIVIDE.ordinal()] = 5;
+    BINDING_POWER[TokenType.MODULO.ordinal()] = 5;
+  }
     
   private Lexer lexer; 
+  private TokenBuffer tokens;          // token stream when not lexing
+  private int index = -1;              // current token in tokens
+  private int end;                     // tokens past end read as EOS
   private Token currToken = null;
+  private TokenType currType = null;
+  private long tokenCount = 0;         // number of tokens advanced over
+  private SyntaxTree tree;             // tree being built, if any
+  private Diagnostics diagnostics;     // error sink in recovery mode
+  private int firstReported;           // first sink entry of this parse
+  private ParseListener listener;      // notified of parse events, if any
+  private NodeKind[] entered;          // nodes the listener is in
+  private int depth;
+  private NodeKind pendingLeaf;        // leaf to exit after its token
   private boolean debug_flag = false;  // set to false to remove debug comments
   
   /** 
@@ -24,6 +84,21 @@ public class Parser {
     this.lexer = lexer;
   }
 
+  /** 
+   * Create a new parser over an already lexed token stream.
+   */
+  public Parser(TokenBuffer tokens) {
+    this(tokens, 0, tokens.size());
+  }
+
+  // a parser over tokens [from, to) of the given buffer, which reads
+  // the end of the range as EOS
+  Parser(TokenBuffer tokens, int from, int to) {
+    this.tokens = tokens;
+    this.index = from - 1;
+    this.end = to;
+  }
+
   /**
    * Ensures program is syntactically correct. On error, throws a
    * MyPLException.
@@ -31,34 +106,259 @@ public class Parser {
   public void parse() throws MyPLException
   {
     advance();
+    open(NodeKind.PROGRAM);
     stmts();
+    close();
     eat(TokenType.EOS, "expecting end of file");
   }
 
+  /**
+   * Parses like parse() and also builds the syntax tree of the program,
+   * which is returned. Only a parser over a TokenBuffer can build a
+   * tree, since its nodes refer to tokens by index. On error, throws a
+   * MyPLException.
+   */
+  public SyntaxTree parseTree() throws MyPLException {
+    if (tokens == null)
+      throw new IllegalStateException("syntax trees need a token buffer");
+    tree = new SyntaxTree(tokens, end - index);
+    parse();
+    tree.finish();
+    return tree;
+  }
+
+  /**
+   * Parses in recovery mode: after an error, the parser skips ahead to
+   * the next statement keyword or 'end' and goes on, so that one pass
+   * finds the errors of independent statements. Returns the errors in
+   * order (empty if the program parses), stopping after maxErrors. An
+   * error skipped over may cause errors after it that a fixed program
+   * would not have, and a lexical error ends the parse.
+   */
+  public List<MyPLException> parseAll(int maxErrors) {
+    Diagnostics sink = new Diagnostics(maxErrors);
+    check(sink);
+    List<MyPLException> errors = new ArrayList<>();
+    for (int i = 0; i < sink.size(); ++i)
+      errors.add(sink.exception(i));
+    return errors;
+  }
+
+  /**
+   * Parses in recovery mode (see parseAll), adding the errors found to
+   * the given sink until it is full. Returns true if the program
+   * parses, i.e. if no error was added to the sink or dropped by it.
+   * Parse errors are reported without creating exceptions, so checking
+   * a broken program costs about as much as a correct one.
+   */
+  public boolean check(Diagnostics sink) {
+    int before = sink.size();
+    int droppedBefore = sink.dropped();
+    firstReported = before;
+    diagnostics = sink;
+    try {
+      parse();
+    } catch (MyPLException e) {
+      // a lexical error, or the error that filled the sink
+      if (e != REPORTED)
+        sink.report(e);
+    } finally {
+      diagnostics = null;
+    }
+    return sink.size() == before && sink.dropped() == droppedBefore;
+  }
+
+  /**
+   * Reports the events of the parses that follow to the given listener
+   * (or to none, if null).
+   */
+  public void setListener(ParseListener listener) {
+    this.listener = listener;
+    if (listener != null && entered == null)
+      entered = new NodeKind[16];
+    depth = 0;
+    pendingLeaf = null;
+  }
+
+  /**
+   * Parses the statements of the parser's token range. Returns true if
+   * the statements end exactly at the end of the range (if the range
+   * runs to the end of the buffer, this is the same as parse()).
+   */
+  boolean parseRange() throws MyPLException {
+    if (end == tokens.size()) {
+      parse();
+      return true;
+    }
+    advance();
+    stmts();
+    return index == end;
+  }
+
 
   /* Helper Functions */
 
   // sets current token to next token in stream
   private void advance() throws MyPLException {
-    currToken = lexer.nextToken();
+    if (listener != null && currType != null && currType != TokenType.EOS)
+      consumed();
+    if (tokens == null) {
+      currToken = lexer.nextToken();
+      currType = currToken.type();
+    }
+    else {
+      // stay on the final EOS, or report the error that ends the stream
+      if (index + 1 < end)
+        currType = tokens.type(++index);
+      else if (end < tokens.size()) {
+        index = end;
+        currType = TokenType.EOS;
+      }
+      else if (tokens.error() != null)
+        throw tokens.error();
+      else
+        currType = tokens.type(index);
+    }
+    ++tokenCount;
   }
 
   // checks that current token matches given type and advances,
   // otherwise creates an error with the given error message
   private void eat(TokenType t, String errmsg) throws MyPLException {
-    if (currToken.type() == t)
+    if (currType == t)
       advance();
     else
       error(errmsg);
   }
 
-  // generates an error message from the given message and throws a
-  // corresponding MyPLException
+  // throws a MyPLException with the given message at the current
+  // token; in recovery mode, reports the error to the sink instead and
+  // throws REPORTED
   private void error(String errmsg) throws MyPLException {
-    String s = errmsg + " found '" + currToken.lexeme() + "'";
-    int row = currToken.row();
-    int col = currToken.column();
-    throw new MyPLException("Parser", errmsg, row, col);
+    int row;
+    int col;
+    if (tokens == null) {
+      row = currToken.row();
+      col = currToken.column();
+    }
+    else {
+      row = tokens.line(index);
+      col = tokens.column(index);
+    }
+    if (diagnostics == null)
+      throw new MyPLException("Parser", errmsg, row, col);
+    // skip an error at the same place as the last one of this parse
+    // (as when it comes from the same missing token)
+    int last = diagnostics.size() - 1;
+    if (last < firstReported || diagnostics.line(last) != row
+        || diagnostics.column(last) != col)
+      diagnostics.report("Parser", errmsg, row, col);
+    throw REPORTED;
+  }
+
+  // in recovery mode, skips from an error in a statement to a token a
+  // statement can start with, or to 'end' (which ends a block, and at
+  // the top level is skipped too), after exiting the listener from the
+  // nodes entered since the given depth; otherwise, or if the error
+  // cannot be recovered from (a lexical error, or the sink is full),
+  // throws it on
+  private void recover(MyPLException e, boolean topLevel, int level)
+    throws MyPLException
+  {
+    if (e != REPORTED || diagnostics.isFull())
+      throw e;
+    if (listener != null) {
+      if (pendingLeaf != null) {
+        listener.exit(pendingLeaf);
+        pendingLeaf = null;
+      }
+      while (depth > level)
+        listener.exit(entered[--depth]);
+    }
+    while ((SYNC & 1L << currType.ordinal()) == 0)
+      advance();
+    if (topLevel && currType == TokenType.END)
+      advance();
+  }
+
+  // checks that the statement that started at the given token count
+  // consumed at least one token, which keeps the statement loops from
+  // spinning on a token no statement can start with
+  private void progress(long start) throws MyPLException {
+    if (tokenCount == start)
+      error("expecting statement");
+  }
+
+  // reports the current token to the listener as consumed, and exits
+  // the leaf it is the token of
+  private void consumed() {
+    listener.token(tokens == null ? currToken : tokens.token(index));
+    if (pendingLeaf != null) {
+      listener.exit(pendingLeaf);
+      pendingLeaf = null;
+    }
+  }
+
+  // opens a tree node at the current token (if building a tree); its
+  // children are the nodes added until the matching close()
+  private void open(NodeKind kind) {
+    open(kind, index);
+  }
+
+  private void open(NodeKind kind, int token) {
+    if (tree != null)
+      tree.open(kind, token);
+    if (listener != null)
+      enter(kind);
+  }
+
+  private void close() {
+    if (tree != null)
+      tree.close();
+    if (listener != null)
+      listener.exit(entered[--depth]);
+  }
+
+  private void enter(NodeKind kind) {
+    if (depth == entered.length)
+      entered = Arrays.copyOf(entered, depth * 2);
+    entered[depth++] = kind;
+    listener.enter(kind);
+  }
+
+  // adds a tree node without children at the current token, which the
+  // listener sees the node exited after
+  private void leaf(NodeKind kind) {
+    if (tree != null)
+      tree.leaf(kind, index);
+    if (listener != null) {
+      listener.enter(kind);
+      pendingLeaf = kind;
+    }
+  }
+
+  // opens a tree node at the current token that adopts the nodes added
+  // since the given tree size (see SyntaxTree.openAround)
+  private void openAround(NodeKind kind, int mark) {
+    if (tree != null)
+      tree.openAround(kind, index, mark);
+    if (listener != null)
+      enter(kind);
+  }
+
+  // the number of tree nodes so far, to mark where an operand starts
+  private int mark() {
+    return tree == null ? 0 : tree.size();
+  }
+
+  // adds a tree node without children at an earlier token
+  private void leaf(NodeKind kind, int token) {
+    if (tree != null)
+      tree.leaf(kind, token);
+    if (listener != null) {
+      listener.enter(kind);
+      listener.exit(kind);
+    }
   }
 
   // function to print a debug string if the debug_flag is set for
@@ -72,33 +372,49 @@ public class Parser {
   /* Recursive Descent Functions */
   
   // <stmts> ::= <stmt> <stmts> | epsilon
+  // (the tail recursion is walked as a loop so that the stack depth
+  // does not grow with the number of statements)
   private void stmts() throws MyPLException {
-    if(currToken.type() != TokenType.EOS){
+    while(currType != TokenType.EOS){
       debug("<stmts>");
-      stmt();
-      stmts();
+      long start = tokenCount;
+      int level = depth;
+      try {
+        stmt();
+        progress(start);
+      } catch (MyPLException e) {
+        recover(e, true, level);
+      }
     }
   }
 
 
   // <bstmts> ::= <bstmt> <bstmts> | epsilon
   private void bstmts() throws MyPLException {
-    //System.out.println(currToken.type());
-    if(isBstmt(currToken.type())){
+    //System.out.println(currType);
+    open(NodeKind.BLOCK);
+    while(isBstmt(currType)){
       debug("<bstmts>");
-      bstmt();
-      bstmts();
+      long start = tokenCount;
+      int level = depth;
+      try {
+        bstmt();
+        progress(start);
+      } catch (MyPLException e) {
+        recover(e, false, level);
+      }
     }
+    close();
   }
   
   // TODO: remaining recursive descent functions ...
 
   private void stmt() throws MyPLException{
     debug("<stmt>");
-    if(currToken.type() == TokenType.TYPE){
+    if(currType == TokenType.TYPE){
       tdecl();
     }
-    else if(currToken.type() == TokenType.FUN){
+    else if(currType == TokenType.FUN){
       fdecl();
     }
     else{
@@ -108,27 +424,27 @@ public class Parser {
 
   private void bstmt() throws MyPLException{
     debug("<bstmt>");
-    if(currToken.type() == TokenType.VAR){
+    if(currType == TokenType.VAR){
       //advance();
       vdecl();
     }
-    else if(currToken.type() == TokenType.SET){
+    else if(currType == TokenType.SET){
       //advance();
       assign();
     }
-    else if(currToken.type() ==  TokenType.IF){
+    else if(currType ==  TokenType.IF){
       //advance();
       cond();
     }
-    else if(currToken.type() == TokenType.WHILE){
+    else if(currType == TokenType.WHILE){
       //advance();
       tokenWhile();
     }
-    else if(currToken.type() == TokenType.FOR){
+    else if(currType == TokenType.FOR){
       //advance();
       tokenFor();
     }
-    else if(currToken.type() == TokenType.RETURN){
+    else if(currType == TokenType.RETURN){
       //advance();
       exit();
     }
@@ -139,181 +455,279 @@ public class Parser {
 
   private void tdecl() throws MyPLException{
     debug("<tdecl>");
+    open(NodeKind.TYPE_DECL);
     eat(TokenType.TYPE, "expecting type" );
+    leaf(NodeKind.NAME);
     eat(TokenType.ID, "expecting ID" );
     vdecls();
     eat(TokenType.END, "expecting end");
+    close();
   }
 
   private void vdecls() throws MyPLException{
     debug("<vdecls>");
-    if(currToken.type() == TokenType.VAR){
+    while(currType == TokenType.VAR){
       vdecl();
-      vdecls();
     }
   }
 
   private void fdecl() throws MyPLException{
     debug("<fdecl>");
+    open(NodeKind.FUN_DECL);
     eat(TokenType.FUN, "expected word: FUN");
-    if(isType(currToken.type())){
-      dtype();
-    }
-    else{
-      eat(TokenType.NIL, "expecting nil");
+    int level = depth;
+    try {
+      if(isType(currType)){
+        dtype();
+      }
+      else{
+        leaf(NodeKind.TYPE);
+        eat(TokenType.NIL, "expecting nil");
+      }
+      //System.out.println("after checks");
+      leaf(NodeKind.NAME);
+      eat(TokenType.ID, "expected ID");
+      //System.out.println("after checks");
+      eat(TokenType.LPAREN, "expected left parentheses");
+      params();
+      eat(TokenType.RPAREN, "expected right parentheses");
+    } catch (MyPLException e) {
+      recover(e, false, level);
     }
-    //System.out.println("after checks");
-    eat(TokenType.ID, "expected ID");
-    //System.out.println("after checks");
-    eat(TokenType.LPAREN, "expected left parentheses");
-    params();
-    eat(TokenType.RPAREN, "expected right parentheses");
     bstmts();
     eat(TokenType.END, "expected END token");
+    close();
   }
   private void params() throws MyPLException{
-    if(isType(currToken.type())){
-      //System.out.println("type in params " + currToken.type());
+    if(isType(currType)){
+      //System.out.println("type in params " + currType);
       debug("<params>");
+      open(NodeKind.PARAM);
       dtype();
+      leaf(NodeKind.NAME);
       eat(TokenType.ID, "expected ID");
-      //System.out.println(currToken.type());
-      while (currToken.type() == TokenType.COMMA){
+      close();
+      //System.out.println(currType);
+      while (currType == TokenType.COMMA){
         advance();
+        open(NodeKind.PARAM);
         dtype();
+        leaf(NodeKind.NAME);
         eat(TokenType.ID, "expected id");
+        close();
       }
     }
   }
   private void dtype() throws MyPLException{
-    //System.out.println(currToken.type());
+    //System.out.println(currType);
     debug("<dtype>");
-    if(currToken.type() == TokenType.INT_TYPE){
+    if(currType == TokenType.INT_TYPE){
+      leaf(NodeKind.TYPE);
       advance();
       //eat(TokenType.INT_TYPE, "expected int type");
     }
-    else if(currToken.type() == TokenType.DOUBLE_TYPE){
+    else if(currType == TokenType.DOUBLE_TYPE){
+      leaf(NodeKind.TYPE);
       advance();
       //eat(TokenType.DOUBLE_TYPE, "expected double type");
     }
-    else if(currToken.type() == TokenType.BOOL_TYPE){
+    else if(currType == TokenType.BOOL_TYPE){
+      leaf(NodeKind.TYPE);
       advance();
       //eat(TokenType.BOOL_TYPE, "expected bool type");
     }
-    else if(currToken.type() == TokenType.CHAR_TYPE){
+    else if(currType == TokenType.CHAR_TYPE){
+      leaf(NodeKind.TYPE);
       advance();
       //eat(TokenType.CHAR_TYPE, "expected char type");
     }
-    else if(currToken.type() == TokenType.STRING_TYPE){
+    else if(currType == TokenType.STRING_TYPE){
+      leaf(NodeKind.TYPE);
       advance();
       //eat(TokenType.STRING_TYPE, "expected type");
     }
-    else if(currToken.type() == TokenType.ID){
+    else if(currType == TokenType.ID){
+      leaf(NodeKind.TYPE);
       advance();
       //eat(TokenType.ID, "expected ID");
     }
   }
   private void exit() throws MyPLException{
     debug("<exit>");
+    open(NodeKind.RETURN);
     eat(TokenType.RETURN, "expected 'return'");
-    if(currToken.type() !=TokenType.END){
+    if(currType !=TokenType.END){
       expr();
     }
+    close();
     //debug("in exit");
   }
 
   private void vdecl() throws MyPLException{
     debug("<vdecl>");
+    open(NodeKind.VAR_DECL);
     eat(TokenType.VAR, "Expected VAR");
-    if(currToken.type() == TokenType.ID){
+    if(currType == TokenType.ID){
+      // the ID is a type only if a second ID follows
+      int first = index;
       advance();
-      if(currToken.type() == TokenType.ID){
+      if(currType == TokenType.ID){
+        leaf(NodeKind.TYPE, first);
+        leaf(NodeKind.NAME);
         advance();
         //eat(TokenType.ASSIGN, "expecting ':='");
       }
+      else{
+        leaf(NodeKind.NAME, first);
+      }
     }
     else{
       dtype();
+      leaf(NodeKind.NAME);
       eat(TokenType.ID, "Expected ID");
     }
     eat(TokenType.ASSIGN, "Expected Assignment statement");
     expr();
+    close();
     //error("end of vdecl");
   }
 
   private void assign() throws MyPLException{
     debug("<assign>");
+    open(NodeKind.ASSIGN);
     eat(TokenType.SET, "expected set");
     lvalue();
     eat(TokenType.ASSIGN, "exepected assignment statement");
     expr();
+    close();
   }
   
   private void lvalue() throws MyPLException{
     debug("<lvalue>");
+    open(NodeKind.PATH);
+    leaf(NodeKind.NAME);
     eat(TokenType.ID, "expected ID");
-    while(currToken.type() == TokenType.DOT){
+    while(currType == TokenType.DOT){
       advance();
+      leaf(NodeKind.NAME);
       eat(TokenType.ID, "expected ID");
     }
+    close();
   }
   private void cond() throws MyPLException{
     debug("<cond>");
+    open(NodeKind.IF);
     eat(TokenType.IF, "expected 'if'");
-    expr();
-    eat(TokenType.THEN, "expected 'then'");
+    // in recovery mode, a broken header still leaves its block to be
+    // parsed as the body, so that the block's 'end' lines up
+    int level = depth;
+    try {
+      expr();
+      eat(TokenType.THEN, "expected 'then'");
+    } catch (MyPLException e) {
+      recover(e, false, level);
+    }
     bstmts();
     condt();
     debug("in cond");
-    //System.out.println(currToken.type());
+    //System.out.println(currType);
     eat(TokenType.END, "expected 'end'");
+    close();
   }
 
   private void condt() throws MyPLException{
-    if(currToken.type() == TokenType.ELIF){
+    while(currType == TokenType.ELIF){
       debug("<condt>");
+      open(NodeKind.ELIF);
       advance();
       //eat(TokenType.ELIF, "expected 'elif'");
-      expr();
-      eat(TokenType.THEN, "expected 'then'");
+      int level = depth;
+      try {
+        expr();
+        eat(TokenType.THEN, "expected 'then'");
+      } catch (MyPLException e) {
+        recover(e, false, level);
+      }
       bstmts();
-      condt();
+      close();
     }
-    else if(currToken.type() == TokenType.ELSE){
+    if(currType == TokenType.ELSE){
+      open(NodeKind.ELSE);
       advance();
       bstmts();
+      close();
     }
   }
   private void tokenWhile() throws MyPLException{
     debug("<tokenwhile>");
+    open(NodeKind.WHILE);
     eat(TokenType.WHILE, "expected 'while'");
-    expr();
-    eat(TokenType.DO, "expected 'do'");
+    int level = depth;
+    try {
+      expr();
+      eat(TokenType.DO, "expected 'do'");
+    } catch (MyPLException e) {
+      recover(e, false, level);
+    }
     bstmts();
     debug("in while");
     eat(TokenType.END, "expected 'end'");
+    close();
   }
   private void tokenFor() throws MyPLException{
     debug("<for>");
+    open(NodeKind.FOR);
     eat(TokenType.FOR, "expected 'for'");
-    eat(TokenType.ID, "expected 'id'");
-    eat(TokenType.ASSIGN, "expected ':=' for assignment");
-    expr();
-    eat(TokenType.TO, "expected 'to'");
-    expr();
-    eat(TokenType.DO, "expected 'do'");
+    int level = depth;
+    try {
+      leaf(NodeKind.NAME);
+      eat(TokenType.ID, "expected 'id'");
+      eat(TokenType.ASSIGN, "expected ':=' for assignment");
+      expr();
+      eat(TokenType.TO, "expected 'to'");
+      expr();
+      eat(TokenType.DO, "expected 'do'");
+    } catch (MyPLException e) {
+      recover(e, false, level);
+    }
     bstmts();
     debug("in token for");
     eat(TokenType.END, "expected 'end'");
+    close();
   }
   //when checking if statements advance
   private void expr() throws MyPLException{
     debug("<expr>");
-    if(currToken.type() == TokenType.NOT){
+    open(NodeKind.EXPR);
+    binary(0);
+    close();
+  }
+
+  // parses an operand followed by the operators (and their right
+  // operands) that bind tighter than minPower, by precedence climbing:
+  // a chain of operators at one level is a loop, and only a tighter
+  // operator recurses, so the depth is bounded by the number of levels
+  // rather than the length of the chain
+  private void binary(int minPower) throws MyPLException{
+    int mark = mark();
+    operand();
+    int power;
+    while((power = BINDING_POWER[currType.ordinal()]) > minPower){
+      openAround(NodeKind.BINARY, mark);
+      advance();
+      binary(power);
+      close();
+    }
+  }
+
+  private void operand() throws MyPLException{
+    if(currType == TokenType.NOT){
+      open(NodeKind.NOT);
       advance();
-      expr();
+      binary(NOT_POWER);
+      close();
     }
-    else if(currToken.type() == TokenType.LPAREN){
+    else if(currType == TokenType.LPAREN){
       advance();
       expr();
       eat(TokenType.RPAREN, "expected ')' to close parentheses");
@@ -321,81 +735,27 @@ public class Parser {
     else{
       rvalue();
     }
-    if(isOperator(currToken.type())){
-      advance();
-      expr();
-    }
-  }
-  private void operator() throws MyPLException{
-    debug("<operator>");
-    if(currToken.type() == TokenType.PLUS){
-      advance();
-      //eat(TokenType.PLUS, "expected '+'");
-    }
-    if(currToken.type() == TokenType.MINUS){
-      advance();
-      //eat(TokenType.MINUS, "expected '-'");
-    }
-    if(currToken.type() == TokenType.DIVIDE){
-      advance();
-      //eat(TokenType.DIVIDE, "expected '/'");
-    }
-    if(currToken.type() == TokenType.MULTIPLY){
-      advance();
-      //eat(TokenType.MULTIPLY, "expected '*'");
-    }
-    if(currToken.type() == TokenType.MODULO){
-      advance();
-      //eat(TokenType.MODULO, "expected '%'");
-    }
-    if(currToken.type() == TokenType.AND){
-      advance();
-      //eat(TokenType.AND, "expected 'and'");
-    }
-    if(currToken.type() == TokenType.OR){
-      advance();
-      //eat(TokenType.OR, "expected 'or'");
-    }
-    if(currToken.type() == TokenType.EQUAL){
-      advance();
-      //eat(TokenType.EQUAL, "expected '='");
-    }
-    if(currToken.type() == TokenType.LESS_THAN){
-      advance();
-      //eat(TokenType.LESS_THAN, "expected '<'");
-    }
-    if(currToken.type() == TokenType.GREATER_THAN){
-      advance();
-      //eat(TokenType.GREATER_THAN, "expected '>'");
-    }
-    if(currToken.type() == TokenType.LESS_THAN_EQUAL){
-      advance();
-      //eat(TokenType.LESS_THAN_EQUAL, "expected '<='");
-    }
-    if(currToken.type() == TokenType.GREATER_THAN_EQUAL){
-      advance();
-      //eat(TokenType.GREATER_THAN_EQUAL, "expected >=");
-    }
-    if(currToken.type() == TokenType.NOT_EQUAL){
-      advance();
-      //eat(TokenType.NOT_EQUAL, "expected '!='");
-    }
-
   }
   private void rvalue() throws MyPLException{
     debug("<rvalue>");
-    if(currToken.type() == TokenType.NIL){
+    if(currType == TokenType.NIL){
+      leaf(NodeKind.NIL);
       advance();
     }
-    else if(currToken.type() == TokenType.NEW){
+    else if(currType == TokenType.NEW){
+      open(NodeKind.NEW);
       advance();
+      leaf(NodeKind.NAME);
       eat(TokenType.ID, "expected ID");
+      close();
     }
-    else if(currToken.type() ==  TokenType.NEG){
+    else if(currType ==  TokenType.NEG){
+      open(NodeKind.NEG);
       advance();
-      expr();
+      binary(NEG_POWER);
+      close();
     }
-    else if(currToken.type() == TokenType.ID){
+    else if(currType == TokenType.ID){
       idrval();
     }
     else{
@@ -405,23 +765,28 @@ public class Parser {
   }
   private void pval() throws MyPLException{
     debug("<pval>");
-    if(currToken.type() == TokenType.INT_VAL){
+    if(currType == TokenType.INT_VAL){
+      leaf(NodeKind.VALUE);
       advance();
       //eat(TokenType.INT_VAL, "expected integer value");
     }
-    if(currToken.type() == TokenType.DOUBLE_VAL){
+    if(currType == TokenType.DOUBLE_VAL){
+      leaf(NodeKind.VALUE);
       advance();
       //eat(TokenType.DOUBLE_VAL, "expected double value");
     }
-    if(currToken.type() == TokenType.BOOL_VAL){
+    if(currType == TokenType.BOOL_VAL){
+      leaf(NodeKind.VALUE);
       advance();
       //eat(TokenType.BOOL_VAL, "expected boolean value");
     }
-    if(currToken.type() == TokenType.CHAR_VAL){
+    if(currType == TokenType.CHAR_VAL){
+      leaf(NodeKind.VALUE);
       advance();
       //eat(TokenType.CHAR_VAL, "expected char value");
     }
-    if(currToken.type() == TokenType.STRING_VAL){
+    if(currType == TokenType.STRING_VAL){
+      leaf(NodeKind.VALUE);
       advance();
       //eat(TokenType.STRING_VAL, "expected string value");
     }
@@ -431,97 +796,58 @@ public class Parser {
   private void idrval() throws MyPLException{
     debug("<idrval>");
     //debug("before id eat");
+    // the ID names a call or starts a path, depending on what follows
+    int first = index;
     eat(TokenType.ID, "expecting ID");
     //debug("after id eat");
-    if(currToken.type() == TokenType.LPAREN){
+    if(currType == TokenType.LPAREN){
+      open(NodeKind.CALL, first);
+      leaf(NodeKind.NAME, first);
       advance();
       //debug("in lparen");
       exprlist();
       eat(TokenType.RPAREN, "expecting ')'");
+      close();
     }
     else{
-    while(currToken.type() == TokenType.DOT){
+    open(NodeKind.PATH, first);
+    leaf(NodeKind.NAME, first);
+    while(currType == TokenType.DOT){
       advance();
+      leaf(NodeKind.NAME);
       eat(TokenType.ID, "expecting ID");
     }
+    close();
   }
   }
   private void exprlist() throws MyPLException{
     debug("<exprlist>");
-    if(isExpr(currToken.type())){
+    if(isExpr(currType)){
       expr();
-      while(currToken.type() == TokenType.COMMA){
+      while(currType == TokenType.COMMA){
         advance();
         expr();
       }
     }
   }
   public boolean isType(TokenType t){
-    Set <TokenType> s = new HashSet<TokenType>();
-    s.add(TokenType.INT_TYPE);
-    s.add(TokenType.DOUBLE_TYPE);
-    s.add(TokenType.BOOL_TYPE);
-    s.add(TokenType.CHAR_TYPE);
-    s.add(TokenType.STRING_TYPE);
-    s.add(TokenType.ID);
-    return s.contains(t);
-
+    return (TYPES & 1L << t.ordinal()) != 0;
   }
   public boolean isOperator(TokenType t){
-    Set <TokenType> s = new HashSet<TokenType>();
-    s.add(TokenType.PLUS);
-    s.add(TokenType.MINUS);
-    s.add(TokenType.DIVIDE);
-    s.add(TokenType.MULTIPLY);
-    s.add(TokenType.MODULO);
-    s.add(TokenType.AND);
-    s.add(TokenType.OR );
-    s.add(TokenType.EQUAL);
-    s.add(TokenType.LESS_THAN);
-    s.add(TokenType.GREATER_THAN);
-    s.add(TokenType.LESS_THAN_EQUAL);
-    s.add(TokenType.GREATER_THAN_EQUAL );
-    s.add(TokenType.NOT_EQUAL);       
-    return s.contains(t);
+    return (OPERATORS & 1L << t.ordinal()) != 0;
   }
   public boolean isExpr(TokenType t){
-    Set <TokenType> s = new HashSet<TokenType>();
-    s.add(TokenType.NIL);
-    s.add(TokenType.NEW);
-    s.add(TokenType.NEG);
-    s.add(TokenType.INT_VAL);
-    s.add(TokenType.DOUBLE_VAL);
-    s.add(TokenType.BOOL_VAL);
-    s.add(TokenType.CHAR_VAL);
-    s.add(TokenType.STRING_VAL);
-    s.add(TokenType.ID);
-    s.add(TokenType.LPAREN);
-    return s.contains(t);
-
+    return (EXPR_STARTS & 1L << t.ordinal()) != 0;
   }
   public boolean isBstmt(TokenType t){
-    Set <TokenType> s = new HashSet<TokenType>();
-    s.add(TokenType.VAR);
-    s.add(TokenType.SET);
-    s.add(TokenType.IF);
-    s.add(TokenType.WHILE);
-    s.add(TokenType.FOR);
-    s.add(TokenType.RETURN);
-    s.add(TokenType.NOT);
-    s.add(TokenType.ASSIGN);
-    s.add(TokenType.IF);
-    s.add(TokenType.WHILE);
-    s.add(TokenType.FOR);
-    s.add(TokenType.NIL);
-    s.add(TokenType.NEW);
-    s.add(TokenType.NEG);
-    s.add(TokenType.INT_VAL);
-    s.add(TokenType.DOUBLE_VAL);
-    s.add(TokenType.BOOL_VAL);
-    s.add(TokenType.CHAR_VAL);
-    s.add(TokenType.STRING_VAL);
-    s.add(TokenType.ID);
-    s.add(TokenType.LPAREN);
-    return s.contains(t);
+    return (BSTMT_STARTS & 1L << t.ordinal()) != 0;
+  }
+
+  // the set of the given token types as a bitmask over their ordinals
+  private static long bits(TokenType... types) {
+    long set = 0;
+    for (TokenType t : types)
+      set |= 1L << t.ordinal();
+    return set;
   }
 }
@@ -0,0 +1,234 @@
+/**
+ * File: PipelinedLexer.java
+ *
+ * A Lexer that lexes on a thread of its own, so that lexing overlaps
+ * with parsing: a Parser over a pipelined lexer gets its tokens from
+ * nextToken() as usual, while the lexer thread works ahead. Tokens are
+ * passed in batches through a bounded ring of batches with one writer
+ * (the lexer thread) and one reader (the parser), synchronized only by
+ * the two batch counters. When the ring is full the lexer thread waits
+ * for the parser, and when it is empty the parser waits for the lexer
+ * thread (spinning briefly, then parking).
+ *
+ * Tokens are returned in the same order, and a lexical error is thrown
+ * by the same nextToken() call, as with a Lexer over the same input.
+ * The lexer thread stops after the first EOS and one more token (the
+ * most a Parser asks for), at an error, or when the lexer is closed;
+ * a parse that ends early should close the lexer so its thread does
+ * not wait on a full ring. If the lexer thread fails (e.g. with an
+ * Error), nextToken() throws an IllegalStateException instead of
+ * waiting for it. Only nextToken() may be called on a pipelined lexer,
+ * from one thread.
+ *
+ * With a single processor there is nothing to overlap, so the lexer
+ * then lexes each batch on the calling thread instead.
+ */
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+
+public class PipelinedLexer extends Lexer implements Closeable {
+
+  private static final int BATCH_SIZE = 256;      // tokens per batch
+  private static final int RING_SIZE = 64;        // batches, a power of 2
+  private static final int SPINS = 200;           // before parking
+  private static final long PARK_NANOS = 1000000; // wait at most 1 ms
+  private static final boolean THREADED =
+    Runtime.getRuntime().availableProcessors() > 1;
+
+  private final Lexer lexer;            // used by the lexer thread only
+  private final Token[][] batches = new Token[RING_SIZE][BATCH_SIZE];
+  private final int[] sizes = new int[RING_SIZE];
+  private final boolean[] last = new boolean[RING_SIZE];
+  // batches published by the lexer thread, and released by the parser
+  private final AtomicLong published = new AtomicLong();
+  private final AtomicLong released = new AtomicLong();
+  // the error that ends the tokens, written before the last batch is
+  // published
+  private MyPLException error;
+  private Throwable failure;            // from the lexer thread itself
+  private volatile boolean lexerParked;
+  private volatile boolean parserParked;
+  private volatile boolean closed;
+  private volatile Thread thread;       // the lexer thread
+  private Thread parser;                // the thread calling nextToken
+  private boolean eos;                  // the first EOS was lexed
+
+  // parser side
+  private Token[] batch;
+  private int batchSize;
+  private int next;
+  private long taken;                   // batches taken
+  private boolean ended;                // the last batch was taken
+  private Token lastToken;
+
+  /**
+   * Create a new pipelined lexer over the given reader.
+   */
+  public PipelinedLexer(Reader reader) {
+    this(new Lexer(reader));
+  }
+
+  /**
+   * Create a new pipelined lexer over the first length characters of
+   * the given array, which the lexer then owns.
+   */
+  public PipelinedLexer(char[] source, int length) {
+    this(new Lexer(source, length));
+  }
+
+  private PipelinedLexer(Lexer lexer) {
+    super(new char[0], 0);
+    this.lexer = lexer;
+  }
+
+  /**
+   * Create a new pipelined lexer that reads the given UTF-8 file
+   * through a memory mapping.
+   */
+  public static PipelinedLexer open(java.nio.file.Path path)
+    throws IOException
+  {
+    return new PipelinedLexer(new MappedReader(path));
+  }
+
+  @Override
+  public void setSymbolTable(SymbolTable symbols) {
+    if (thread != null)
+      throw new IllegalStateException("lexer already started");
+    lexer.setSymbolTable(symbols);
+  }
+
+  @Override
+  public SymbolTable symbolTable() {
+    return lexer.symbolTable();
+  }
+
+  @Override
+  public Token nextToken() throws MyPLException {
+    if (next == batchSize && !take()) {
+      if (failure != null)
+        throw new IllegalStateException("lexer thread failed", failure);
+      if (error != null)
+        throw error;
+      return lastToken;
+    }
+    return lastToken = batch[next++];
+  }
+
+  /**
+   * Stops the lexer thread.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    Thread t = thread;
+    if (t != null)
+      LockSupport.unpark(t);
+  }
+
+
+  /* Helper Functions */
+
+  // moves to the next batch, releasing the current one; returns false
+  // if there are no more
+  private boolean take() {
+    if (ended)
+      return false;
+    if (!THREADED) {
+      ended = fill(0);
+      batch = batches[0];
+      batchSize = sizes[0];
+      next = 0;
+      return batchSize > 0;
+    }
+    if (thread == null) {
+      parser = Thread.currentThread();
+      thread = new Thread(this::produce, "mypl-lexer");
+      thread.setDaemon(true);
+      thread.start();
+    }
+    released.set(taken);
+    if (lexerParked)
+      LockSupport.unpark(thread);
+    long count = taken;
+    for (int spins = 0; published.get() <= count; ++spins) {
+      if (!thread.isAlive() && published.get() <= count) {
+        // the thread died without publishing its last batch
+        if (failure == null)
+          failure = new IllegalStateException("lexer thread ended");
+        ended = true;
+        return false;
+      }
+      if (spins >= SPINS) {
+        parserParked = true;
+        if (published.get() <= count)
+          LockSupport.parkNanos(this, PARK_NANOS);
+        parserParked = false;
+      }
+      else
+        Thread.onSpinWait();
+    }
+    int slot = (int)(taken++ & (RING_SIZE - 1));
+    batch = batches[slot];
+    batchSize = sizes[slot];
+    ended = last[slot];
+    next = 0;
+    return batchSize > 0 || take();
+  }
+
+  // the lexer thread: lexes batches into free slots of the ring until
+  // the tokens end or the lexer is closed
+  private void produce() {
+    long count = 0;
+    boolean end = false;
+    while (!end) {
+      long limit = count - RING_SIZE;
+      for (int spins = 0; released.get() <= limit; ++spins) {
+        if (closed)
+          return;
+        if (spins >= SPINS) {
+          lexerParked = true;
+          if (released.get() <= limit && !closed)
+            LockSupport.parkNanos(this, PARK_NANOS);
+          lexerParked = false;
+        }
+        else
+          Thread.onSpinWait();
+      }
+      int slot = (int)(count & (RING_SIZE - 1));
+      end = fill(slot);
+      last[slot] = end;
+      published.set(++count);
+      if (parserParked)
+        LockSupport.unpark(parser);
+    }
+  }
+
+  // lexes a batch of tokens into the given slot; returns true if the
+  // tokens end with it
+  private boolean fill(int slot) {
+    Token[] tokens = batches[slot];
+    int n = 0;
+    boolean end = false;
+    try {
+      while (n < BATCH_SIZE && !end) {
+        Token t = lexer.nextToken();
+        tokens[n++] = t;
+        end = eos;
+        eos = eos || t.type() == TokenType.EOS;
+      }
+    } catch (MyPLException e) {
+      error = e;
+      end = true;
+    } catch (Throwable e) {
+      // also an Error, so that the last batch is still published
+      failure = e;
+      end = true;
+    }
+    sizes[slot] = n;
+    return end;
+  }
+}
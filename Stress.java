@@ -0,0 +1,280 @@
+/**
+ * File: Stress.java
+ *
+ * Stress harness for the Lexer and Parser: generates a program of each
+ * given size with CorpusGenerator, parses it, and reports the time
+ * taken and the peak heap in use while parsing. Each file is parsed by
+ * streaming it through Lexer.open() into a Parser, the same through a
+ * PipelinedLexer (lexing on a second thread), and, if it fits in the
+ * heap, also by lexing it into a TokenBuffer with ParallelLexer and
+ * parsing that with ParallelParser.
+ *
+ * Generated files are kept in the given directory (a temporary one by
+ * default) and reused when run again with the same settings. Generator
+ * options (see CorpusGenerator) are passed through.
+ *
+ * With -stack N, it instead checks that parsing does not grow the
+ * stack with the length of a program: it generates a program of N
+ * statements in two flat lists (one at the top level, one in a while
+ * body) with comments and blank lines between, and parses it streamed,
+ * from a TokenBuffer and into a SyntaxTree on the JVM's default thread
+ * stack (run it without -Xss). It exits with status 1 if any parse
+ * overflows the stack, e.g. for java Stress -stack 5000000.
+ *
+ * Usage: java Stress [-dir D] [-sizes 1m,100m,1g] [-stack N]
+ *                    [generator options]
+ */
+
+import java.io.*;
+import java.lang.management.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+
+public class Stress {
+
+  private final PrintStream out;
+
+  public Stress(PrintStream out) {
+    this.out = out;
+  }
+
+  public static void main(String[] args) {
+    Path dir = null;
+    String sizes = "1m,100m,1g";
+    String stack = null;
+    Map<String, String> options = new TreeMap<>();
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (args[i].equals("-dir"))
+        dir = Paths.get(args[i + 1]);
+      else if (args[i].equals("-sizes"))
+        sizes = args[i + 1];
+      else if (args[i].equals("-stack"))
+        stack = args[i + 1];
+      else
+        options.put(args[i], args[i + 1]);
+    }
+    if (args.length % 2 != 0) {
+      System.out.println("usage: java Stress [-dir D] [-sizes 1m,100m,1g]"
+                         + " [-stack N] [generator options]");
+      System.exit(2);
+    }
+    try {
+      if (dir == null)
+        dir = Files.createTempDirectory("mypl-stress");
+      Stress stress = new Stress(System.out);
+      stress.header();
+      if (stack != null) {
+        if (!stress.stack(dir, stack))
+          System.exit(1);
+        return;
+      }
+      for (String size : sizes.split(","))
+        stress.run(dir, size, options);
+    } catch (IOException e) {
+      System.out.println("I/O error: " + e.getMessage());
+      System.exit(1);
+    } catch (IllegalArgumentException e) {
+      System.out.println("bad option: " + e.getMessage());
+      System.exit(2);
+    }
+  }
+
+  public void header() {
+    out.printf("%-8s %-9s %10s %10s %10s  %s%n", "size", "mode", "tokens",
+               "ms", "peak MB", "result");
+  }
+
+  /**
+   * Generates (or reuses) a program of the given size and parses it in
+   * each mode, printing one line per mode.
+   */
+  public void run(Path dir, String size, Map<String, String> options)
+    throws IOException
+  {
+    Path file = generate(dir, size, options);
+    long bytes = Files.size(file);
+    measure(size, "stream", () -> {
+        new Parser(Lexer.open(file)).parse();
+        return -1;
+      });
+    measure(size, "pipelined", () -> {
+        try (PipelinedLexer lexer = PipelinedLexer.open(file)) {
+          new Parser(lexer).parse();
+        }
+        return -1;
+      });
+    // a char per byte, plus about 14 bytes per token of about 5 chars
+    if (bytes * 6 > Runtime.getRuntime().maxMemory()
+        || bytes > Integer.MAX_VALUE) {
+      skipped(size, "buffered");
+      return;
+    }
+    measure(size, "buffered", () -> {
+        char[] text = new char[(int)bytes];
+        int length;
+        try (Reader reader = new MappedReader(file)) {
+          length = read(reader, text);
+        }
+        TokenBuffer tokens = ParallelLexer.lex(text, length);
+        ParallelParser.parse(tokens);
+        return tokens.size();
+      });
+  }
+
+  /**
+   * Generates (or reuses) a program of the given number of statements
+   * (e.g. 5m) in two flat lists, and parses it streamed, from a TokenBuffer and
+   * into a SyntaxTree (the latter two if they fit in the heap), on the
+   * current thread. Returns false if any parse overflowed the stack.
+   */
+  public boolean stack(Path dir, String size) throws IOException {
+    long statements = CorpusGenerator.parseSize(size);
+    Path file = dir.resolve("stack-" + statements + ".mypl");
+    if (!Files.exists(file))
+      writeFlat(dir, file, statements);
+    long bytes = Files.size(file);
+    boolean ok = measure(size, "stream", () -> {
+        new Parser(Lexer.open(file)).parse();
+        return -1;
+      });
+    // up to two chars per byte while reading, plus about 20 bytes for
+    // each of 6 tokens per statement, or 100 with the tree (measured)
+    long heap = Runtime.getRuntime().maxMemory();
+    if (bytes * 4 + statements * 6 * 20 > heap || bytes > Integer.MAX_VALUE)
+      skipped(size, "buffered");
+    else
+      ok &= measure(size, "buffered", () -> {
+          TokenBuffer tokens = read(file);
+          new Parser(tokens).parse();
+          return tokens.size();
+        });
+    if (bytes * 4 + statements * 6 * 100 > heap || bytes > Integer.MAX_VALUE)
+      skipped(size, "tree");
+    else
+      ok &= measure(size, "tree", () -> {
+          TokenBuffer tokens = read(file);
+          new Parser(tokens).parseTree();
+          return tokens.size();
+        });
+    return ok;
+  }
+
+
+  /* Helper Functions */
+
+  private interface Run {
+    int parse() throws MyPLException, IOException;
+  }
+
+  // runs the parse once after a full collection, and prints its time,
+  // the peak heap use over it and its result; returns false if the
+  // parse overflowed the stack
+  private boolean measure(String size, String mode, Run run)
+    throws IOException
+  {
+    List<MemoryPoolMXBean> pools = new ArrayList<>();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+      if (pool.getType() == MemoryType.HEAP)
+        pools.add(pool);
+    System.gc();
+    for (MemoryPoolMXBean pool : pools)
+      pool.resetPeakUsage();
+    String result = "ok";
+    int tokens = -1;
+    long start = System.nanoTime();
+    try {
+      tokens = run.parse();
+    } catch (MyPLException e) {
+      result = e.toString();
+    } catch (OutOfMemoryError e) {
+      result = "out of memory";
+    } catch (StackOverflowError e) {
+      result = "FAILED: stack overflow";
+    }
+    long millis = (System.nanoTime() - start) / 1000000;
+    long peak = 0;
+    for (MemoryPoolMXBean pool : pools)
+      peak += pool.getPeakUsage().getUsed();
+    out.printf("%-8s %-9s %10s %10d %10d  %s%n", size, mode,
+               tokens < 0 ? "-" : String.valueOf(tokens), millis,
+               peak >> 20, result);
+    return !result.startsWith("FAILED");
+  }
+
+  // prints a mode skipped for lack of heap
+  private void skipped(String size, String mode) {
+    out.printf("%-8s %-9s %10s %10s %10s  %s%n", size, mode, "-", "-", "-",
+               "skipped: needs a larger heap (-Xmx)");
+  }
+
+  // the tokens of the given file, decoded like Lexer.open()
+  private static TokenBuffer read(Path file) throws IOException {
+    try (Reader reader = new MappedReader(file)) {
+      return TokenBuffer.read(reader);
+    }
+  }
+
+  // the generated program of the given size, written if not there yet
+  private Path generate(Path dir, String size, Map<String, String> options)
+    throws IOException
+  {
+    StringBuilder name = new StringBuilder("corpus-" + size);
+    for (Map.Entry<String, String> o : options.entrySet())
+      name.append(o.getKey()).append(o.getValue());
+    Path file = dir.resolve(name.append(".mypl").toString());
+    if (Files.exists(file))
+      return file;
+    CorpusGenerator generator = new CorpusGenerator(
+      Long.parseLong(options.getOrDefault("-seed", "1")));
+    CorpusGenerator.configure(generator, options);
+    generator.setSize(CorpusGenerator.parseSize(size));
+    Path partial = dir.resolve(file.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(partial,
+                                                 StandardCharsets.UTF_8)) {
+      generator.write(writer);
+    }
+    Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+    return file;
+  }
+
+  // writes a program of the given number of statements, half at the
+  // top level and half in the body of one while loop, with a comment
+  // and a blank line before every thousandth one
+  private static void writeFlat(Path dir, Path file, long statements)
+    throws IOException
+  {
+    Path partial = dir.resolve(file.getFileName() + ".tmp");
+    try (Writer writer = Files.newBufferedWriter(partial,
+                                                 StandardCharsets.UTF_8)) {
+      writer.write("var x := 0\n");
+      writeStatements(writer, statements / 2);
+      writer.write("while x < 0 do\n");
+      writeStatements(writer, statements - statements / 2);
+      writer.write("end\n");
+    }
+    Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private static void writeStatements(Writer writer, long count)
+    throws IOException
+  {
+    for (long i = 0; i < count; ++i) {
+      if (i % 1000 == 0)
+        writer.write("\n# statement " + i + "\n");
+      writer.write("set x := x + 1\n");
+    }
+  }
+
+  // reads the reader into the array (which the text must fit in) and
+  // returns the number of chars read
+  private static int read(Reader reader, char[] text) throws IOException {
+    int n = 0;
+    int count;
+    while (n < text.length
+           && (count = reader.read(text, n, text.length - n)) > 0)
+      n += count;
+    return n;
+  }
+}
@@ -0,0 +1,147 @@
+/**
+ * File: SymbolTable.java
+ *
+ * Intern table mapping identifier names to stable int symbol ids. A
+ * table can be shared by lexers running on different threads: lookups
+ * of names already in the table do not lock or allocate, and new
+ * names are added under the table's lock.
+ */
+
+
+public class SymbolTable {
+
+  private static final int INITIAL_CAPACITY = 1024;
+
+  // immutable table entry (final fields make entries safe to read
+  // from other threads without locking)
+  private static final class Entry {
+    final String name;
+    final int hash;
+    final int id;
+    Entry(String name, int hash, int id) {
+      this.name = name;
+      this.hash = hash;
+      this.id = id;
+    }
+  }
+
+  private volatile Entry[] table = new Entry[INITIAL_CAPACITY];
+  private volatile String[] names = new String[INITIAL_CAPACITY];
+  private volatile int size = 0;
+
+  /**
+   * Returns the symbol id of the given characters, adding them to the
+   * table if they are not already present.
+   */
+  public int intern(char[] buf, int offset, int length) {
+    int hash = hash(buf, offset, length);
+    Entry e = find(table, buf, offset, length, hash);
+    if (e != null)
+      return e.id;
+    synchronized (this) {
+      e = find(table, buf, offset, length, hash);
+      if (e != null)
+        return e.id;
+      return add(new String(buf, offset, length), hash);
+    }
+  }
+
+  /**
+   * Returns the symbol id of the given name, adding it to the table if
+   * it is not already present.
+   */
+  public int intern(String name) {
+    return intern(name.toCharArray(), 0, name.length());
+  }
+
+  /**
+   * Returns the name of the given symbol id.
+   */
+  public String name(int id) {
+    String[] n = names;
+    if (id < n.length && n[id] != null)
+      return n[id];
+    // an id read without the lock may be newer than our view of names
+    synchronized (this) {
+      return names[id];
+    }
+  }
+
+  /**
+   * Returns the number of symbols in the table.
+   */
+  public int size() {
+    return size;
+  }
+
+
+  /* Helper Functions */
+
+  private static int hash(char[] buf, int offset, int length) {
+    int h = 0;
+    for (int i = offset; i < offset + length; ++i)
+      h = 31 * h + buf[i];
+    return h ^ (h >>> 16);
+  }
+
+  // linear probe for the given characters, or null if not present
+  private static Entry find(Entry[] t, char[] buf, int offset, int length,
+                            int hash)
+  {
+    int mask = t.length - 1;
+    for (int i = hash & mask; ; i = (i + 1) & mask) {
+      Entry e = t[i];
+      if (e == null)
+        return null;
+      if (e.hash == hash && matches(e.name, buf, offset, length))
+        return e;
+    }
+  }
+
+  private static boolean matches(String name, char[] buf, int offset,
+                                 int length)
+  {
+    if (name.length() != length)
+      return false;
+    for (int i = 0; i < length; ++i)
+      if (name.charAt(i) != buf[offset + i])
+        return false;
+    return true;
+  }
+
+  // adds a new name while holding the lock, growing the table (and
+  // publishing the grown copy) once it is half full
+  private int add(String name, int hash) {
+    int id = size;
+    Entry[] t = table;
+    if (2 * (id + 1) > t.length)
+      t = rehash(t);
+    String[] n = names;
+    if (id == n.length)
+      n = java.util.Arrays.copyOf(n, n.length * 2);
+    n[id] = name;
+    names = n;
+    int mask = t.length - 1;
+    int i = hash & mask;
+    while (t[i] != null)
+      i = (i + 1) & mask;
+    t[i] = new Entry(name, hash, id);
+    table = t;
+    size = id + 1;
+    return id;
+  }
+
+  private static Entry[] rehash(Entry[] t) {
+    Entry[] grown = new Entry[t.length * 2];
+    int mask = grown.length - 1;
+    for (Entry e : t) {
+      if (e == null)
+        continue;
+      int i = e.hash & mask;
+      while (grown[i] != null)
+        i = (i + 1) & mask;
+      grown[i] = e;
+    }
+    return grown;
+  }
+}
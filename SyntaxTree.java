@@ -0,0 +1,250 @@
+/**
+ * File: SyntaxTree.java
+ *
+ * The syntax tree of a parsed token stream, stored as a flat arena of
+ * parallel int arrays (node kind, first child, next sibling and token
+ * index) instead of one object per node. Nodes are numbered in the
+ * order the parser creates them, so the root is node 0; children are
+ * linked in source order. Tokens are indexes into the TokenBuffer the
+ * tree was parsed from.
+ *
+ * The tree is read through node numbers, e.g.
+ *
+ *   for (int c = tree.firstChild(n); c != SyntaxTree.NONE;
+ *        c = tree.nextSibling(c))
+ *     ...
+ */
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+
+public class SyntaxTree {
+
+  /** The node number of a missing child or sibling. */
+  public static final int NONE = -1;
+
+  private static final NodeKind[] KINDS = NodeKind.values();
+
+  private final TokenBuffer tokens;
+  private byte[] kinds;         // node kind ordinals
+  private int[] firstChild;
+  private int[] nextSibling;
+  private int[] tokenIndex;     // token each node refers to
+  private int size;
+
+  // used while building only
+  private int[] lastChild;
+  private int[] open = new int[16];   // stack of open nodes
+  private int depth;
+
+  SyntaxTree(TokenBuffer tokens, int capacity) {
+    this.tokens = tokens;
+    capacity = Math.max(capacity, 16);
+    kinds = new byte[capacity];
+    firstChild = new int[capacity];
+    nextSibling = new int[capacity];
+    tokenIndex = new int[capacity];
+    lastChild = new int[capacity];
+  }
+
+  // adds a node as the last child of the innermost open node and opens
+  // it
+  void open(NodeKind kind, int token) {
+    int n = add(kind, token);
+    if (depth > 0) {
+      int parent = open[depth - 1];
+      if (lastChild[parent] == NONE)
+        firstChild[parent] = n;
+      else
+        nextSibling[lastChild[parent]] = n;
+      lastChild[parent] = n;
+    }
+    push(n);
+  }
+
+  // opens a node that takes the place of the children of the innermost
+  // open node added from node mark on, and adopts them as its first
+  // children (e.g. the left operand of a binary operator, which is
+  // parsed before the operator is seen)
+  void openAround(NodeKind kind, int token, int mark) {
+    int n = add(kind, token);
+    int parent = open[depth - 1];
+    // the children from mark on are the last ones, as every node added
+    // later is numbered after mark
+    int prev = NONE;
+    int c = firstChild[parent];
+    while (c != NONE && c < mark) {
+      prev = c;
+      c = nextSibling[c];
+    }
+    if (c != NONE) {
+      firstChild[n] = c;
+      lastChild[n] = lastChild[parent];
+    }
+    if (prev == NONE)
+      firstChild[parent] = n;
+    else
+      nextSibling[prev] = n;
+    lastChild[parent] = n;
+    push(n);
+  }
+
+  // a new node without links
+  private int add(NodeKind kind, int token) {
+    if (size == kinds.length) {
+      int capacity = size * 2;
+      kinds = Arrays.copyOf(kinds, capacity);
+      firstChild = Arrays.copyOf(firstChild, capacity);
+      nextSibling = Arrays.copyOf(nextSibling, capacity);
+      tokenIndex = Arrays.copyOf(tokenIndex, capacity);
+      lastChild = Arrays.copyOf(lastChild, capacity);
+    }
+    int n = size++;
+    kinds[n] = (byte)kind.ordinal();
+    firstChild[n] = NONE;
+    nextSibling[n] = NONE;
+    lastChild[n] = NONE;
+    tokenIndex[n] = token;
+    return n;
+  }
+
+  private void push(int n) {
+    if (depth == open.length)
+      open = Arrays.copyOf(open, depth * 2);
+    open[depth++] = n;
+  }
+
+  // closes the innermost open node
+  void close() {
+    --depth;
+  }
+
+  // adds a node without children
+  void leaf(NodeKind kind, int token) {
+    open(kind, token);
+    close();
+  }
+
+  // drops the build state and shrinks the arrays to the number of
+  // nodes
+  void finish() {
+    lastChild = null;
+    open = null;
+    if (size == kinds.length)
+      return;
+    kinds = Arrays.copyOf(kinds, size);
+    firstChild = Arrays.copyOf(firstChild, size);
+    nextSibling = Arrays.copyOf(nextSibling, size);
+    tokenIndex = Arrays.copyOf(tokenIndex, size);
+  }
+
+  /**
+   * Returns the number of nodes in the tree.
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns the root node (the PROGRAM).
+   */
+  public int root() {
+    return 0;
+  }
+
+  public NodeKind kind(int node) {
+    return KINDS[kinds[node]];
+  }
+
+  public int firstChild(int node) {
+    return firstChild[node];
+  }
+
+  public int nextSibling(int node) {
+    return nextSibling[node];
+  }
+
+  /**
+   * Returns the index in tokens() of the token the node refers to.
+   */
+  public int token(int node) {
+    return tokenIndex[node];
+  }
+
+  /**
+   * Returns the lexeme of the token the node refers to.
+   */
+  public String lexeme(int node) {
+    return tokens.lexeme(tokenIndex[node]);
+  }
+
+  /**
+   * Returns the number of children of the node.
+   */
+  public int childCount(int node) {
+    int count = 0;
+    for (int c = firstChild[node]; c != NONE; c = nextSibling[c])
+      ++count;
+    return count;
+  }
+
+  /**
+   * Returns the i-th child of the node, or NONE if it has fewer
+   * children.
+   */
+  public int child(int node, int i) {
+    int c = firstChild[node];
+    while (c != NONE && i-- > 0)
+      c = nextSibling[c];
+    return c;
+  }
+
+  /**
+   * Returns the token stream the tree was parsed from.
+   */
+  public TokenBuffer tokens() {
+    return tokens;
+  }
+
+  /**
+   * Prints the tree, one node per line, indented by depth.
+   */
+  public void print(PrintStream out) {
+    if (size == 0)
+      return;
+    // walked with an explicit stack, since expression chains nest as
+    // deep as they are long
+    int[] stack = new int[16];
+    int[] indents = new int[16];
+    int top = 0;
+    stack[0] = root();
+    indents[top++] = 0;
+    StringBuilder line = new StringBuilder();
+    while (top > 0) {
+      int n = stack[--top];
+      int indent = indents[top];
+      line.setLength(0);
+      for (int i = 0; i < indent; ++i)
+        line.append("  ");
+      line.append(kind(n));
+      if (kind(n) != NodeKind.PROGRAM && tokenIndex[n] < tokens.size())
+        line.append(" '").append(lexeme(n)).append("' ")
+          .append(tokens.line(tokenIndex[n])).append(':')
+          .append(tokens.column(tokenIndex[n]));
+      out.println(line);
+      // push the children last to first so the first is printed next
+      int count = childCount(n);
+      if (top + count > stack.length) {
+        stack = Arrays.copyOf(stack, (top + count) * 2);
+        indents = Arrays.copyOf(indents, stack.length);
+      }
+      int i = top + count;
+      for (int c = firstChild[n]; c != NONE; c = nextSibling[c]) {
+        stack[--i] = c;
+        indents[i] = indent + 1;
+      }
+      top += count;
+    }
+  }
+}
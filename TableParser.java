@@ -0,0 +1,420 @@
+/**
+ * File: TableParser.java
+ *
+ * A table-driven LL(1) parser for a TokenBuffer: an alternative to the
+ * recursive descent Parser that accepts the same programs and reports
+ * the same errors, but runs from an explicit stack, so no input (deep
+ * nesting included) can overflow the Java stack.
+ *
+ * The grammar is given below as a table of productions. From it, the
+ * FIRST set of every nonterminal is computed once as a bitmask over
+ * TokenType ordinals, and each production is predicted by the FIRST
+ * set of its right-hand side, or by an explicit set of tokens. Where
+ * the recursive descent takes an 'else' branch, the grammar has an
+ * 'else' production, taken on any other token (rather than only on the
+ * tokens that may follow), so errors are found at the same token and
+ * with the same message. Parsing allocates nothing per step.
+ */
+
+import java.util.*;
+
+
+public class TableParser {
+
+  // The grammar. Each row is a production: the nonterminal, when it is
+  // taken, then its right-hand side. It is taken on the FIRST set of
+  // its right-hand side ("first"), on any token no other production is
+  // taken on ("else"), or on the listed tokens. In a right-hand side,
+  // lower case names are nonterminals and upper case names are tokens,
+  // with the error message if the token is missing after a ':'; "!"
+  // checks that the statement just parsed consumed a token.
+  private static final String[][] GRAMMAR = {
+    {"program", "else", "stmts", "EOS:expecting end of file"},
+    {"stmts", "EOS"},
+    {"stmts", "else", "stmt", "!", "stmts"},
+    {"stmt", "first", "tdecl"},
+    {"stmt", "first", "fdecl"},
+    {"stmt", "else", "bstmt"},
+    {"bstmts", "VAR SET IF WHILE FOR RETURN NOT ASSIGN NIL NEW NEG INT_VAL"
+     + " DOUBLE_VAL BOOL_VAL CHAR_VAL STRING_VAL ID LPAREN",
+     "bstmt", "!", "bstmts"},
+    {"bstmts", "else"},
+    {"bstmt", "first", "vdecl"},
+    {"bstmt", "first", "assign"},
+    {"bstmt", "first", "cond"},
+    {"bstmt", "first", "while"},
+    {"bstmt", "first", "for"},
+    {"bstmt", "first", "exit"},
+    {"bstmt", "else", "expr"},
+    {"tdecl", "else", "TYPE:expecting type", "ID:expecting ID", "vdecls",
+     "END:expecting end"},
+    {"vdecls", "first", "vdecl", "vdecls"},
+    {"vdecls", "else"},
+    {"fdecl", "else", "FUN:expected word: FUN", "rtype", "ID:expected ID",
+     "LPAREN:expected left parentheses", "params",
+     "RPAREN:expected right parentheses", "bstmts",
+     "END:expected END token"},
+    {"rtype", "first", "dtype"},
+    {"rtype", "else", "NIL:expecting nil"},
+    {"params", "first", "dtype", "ID:expected ID", "moreparams"},
+    {"params", "else"},
+    {"moreparams", "first", "COMMA", "dtype", "ID:expected id",
+     "moreparams"},
+    {"moreparams", "else"},
+    {"dtype", "first", "INT_TYPE"},
+    {"dtype", "first", "DOUBLE_TYPE"},
+    {"dtype", "first", "BOOL_TYPE"},
+    {"dtype", "first", "CHAR_TYPE"},
+    {"dtype", "first", "STRING_TYPE"},
+    {"dtype", "first", "ID"},
+    {"dtype", "else"},
+    {"exit", "else", "RETURN:expected 'return'", "retval"},
+    {"retval", "END"},
+    {"retval", "else", "expr"},
+    {"vdecl", "else", "VAR:Expected VAR", "vname",
+     "ASSIGN:Expected Assignment statement", "expr"},
+    {"vname", "first", "ID", "vtypedname"},
+    {"vname", "else", "dtype", "ID:Expected ID"},
+    {"vtypedname", "first", "ID"},
+    {"vtypedname", "else"},
+    {"assign", "else", "SET:expected set", "lvalue",
+     "ASSIGN:exepected assignment statement", "expr"},
+    {"lvalue", "else", "ID:expected ID", "lvaluepath"},
+    {"lvaluepath", "first", "DOT", "ID:expected ID", "lvaluepath"},
+    {"lvaluepath", "else"},
+    {"cond", "else", "IF:expected 'if'", "expr", "THEN:expected 'then'",
+     "bstmts", "condt", "END:expected 'end'"},
+    {"condt", "first", "ELIF", "expr", "THEN:expected 'then'", "bstmts",
+     "condt"},
+    {"condt", "first", "ELSE", "bstmts"},
+    {"condt", "else"},
+    {"while", "else", "WHILE:expected 'while'", "expr", "DO:expected 'do'",
+     "bstmts", "END:expected 'end'"},
+    {"for", "else", "FOR:expected 'for'", "ID:expected 'id'",
+     "ASSIGN:expected ':=' for assignment", "expr", "TO:expected 'to'",
+     "expr", "DO:expected 'do'", "bstmts", "END:expected 'end'"},
+    // operator precedence does not change which programs parse, so
+    // expressions are a flat operand (operator operand)* chain here
+    {"expr", "else", "operand", "operators"},
+    {"operators", "first", "PLUS", "expr"},
+    {"operators", "first", "MINUS", "expr"},
+    {"operators", "first", "MULTIPLY", "expr"},
+    {"operators", "first", "DIVIDE", "expr"},
+    {"operators", "first", "MODULO", "expr"},
+    {"operators", "first", "AND", "expr"},
+    {"operators", "first", "OR", "expr"},
+    {"operators", "first", "EQUAL", "expr"},
+    {"operators", "first", "LESS_THAN", "expr"},
+    {"operators", "first", "GREATER_THAN", "expr"},
+    {"operators", "first", "LESS_THAN_EQUAL", "expr"},
+    {"operators", "first", "GREATER_THAN_EQUAL", "expr"},
+    {"operators", "first", "NOT_EQUAL", "expr"},
+    {"operators", "else"},
+    {"operand", "first", "NOT", "operand"},
+    {"operand", "first", "LPAREN", "expr",
+     "RPAREN:expected ')' to close parentheses"},
+    {"operand", "else", "rvalue"},
+    {"rvalue", "first", "NIL"},
+    {"rvalue", "first", "NEW", "ID:expected ID"},
+    {"rvalue", "first", "NEG", "operand"},
+    {"rvalue", "first", "idrval"},
+    {"rvalue", "else", "pval"},
+    {"pval", "else", "intval", "doubleval", "boolval", "charval",
+     "stringval"},
+    {"intval", "first", "INT_VAL"},
+    {"intval", "else"},
+    {"doubleval", "first", "DOUBLE_VAL"},
+    {"doubleval", "else"},
+    {"boolval", "first", "BOOL_VAL"},
+    {"boolval", "else"},
+    {"charval", "first", "CHAR_VAL"},
+    {"charval", "else"},
+    {"stringval", "first", "STRING_VAL"},
+    {"stringval", "else"},
+    {"idrval", "else", "ID:expecting ID", "idtail"},
+    {"idtail", "first", "LPAREN", "exprlist", "RPAREN:expecting ')'"},
+    {"idtail", "else", "idpath"},
+    {"idpath", "first", "DOT", "ID:expecting ID", "idpath"},
+    {"idpath", "else"},
+    {"exprlist", "NIL NEW NEG INT_VAL DOUBLE_VAL BOOL_VAL CHAR_VAL"
+     + " STRING_VAL ID LPAREN", "expr", "moreexprs"},
+    {"exprlist", "else"},
+    {"moreexprs", "first", "COMMA", "expr", "moreexprs"},
+    {"moreexprs", "else"},
+  };
+
+  // Symbols on the parse stack: 0 is the progress check (followed on
+  // the stack by the token index it checks against), 1 .. FIRST_NT - 1
+  // are expected tokens (with an error message), and nonterminals are
+  // numbered from FIRST_NT.
+  private static final int PROGRESS = 0;
+  private static final int FIRST_NT;
+  private static final int TOKENS = 64;         // bits in a token set
+
+  private static final byte[] expectedType;     // by expect symbol
+  private static final String[] expectedMessage;
+  private static final int[] predict;           // nonterminal x token
+                                                // -> production
+  private static final int[] rhsStart;          // by production, plus end
+  private static final int[] rhs;               // right-hand sides
+  private static final int maxRhs;
+
+  static {
+    Grammar g = new Grammar(GRAMMAR);
+    FIRST_NT = g.expects.size() + 1;
+    expectedType = new byte[FIRST_NT];
+    expectedMessage = new String[FIRST_NT];
+    for (int i = 0; i < g.expects.size(); ++i) {
+      String[] e = g.expects.get(i);
+      expectedType[i + 1] = (byte)TokenType.valueOf(e[0]).ordinal();
+      expectedMessage[i + 1] = e[1];
+    }
+    predict = g.predictTable();
+    rhsStart = new int[g.productions.size() + 1];
+    int length = 0;
+    int max = 0;
+    for (int p = 0; p < g.productions.size(); ++p) {
+      rhsStart[p] = length;
+      length += g.productions.get(p).length;
+      max = Math.max(max, g.productions.get(p).length);
+    }
+    rhsStart[g.productions.size()] = length;
+    rhs = new int[length];
+    for (int p = 0; p < g.productions.size(); ++p)
+      System.arraycopy(g.productions.get(p), 0, rhs, rhsStart[p],
+                       g.productions.get(p).length);
+    maxRhs = max;
+  }
+
+  private final TokenBuffer tokens;
+  private int index = -1;       // current token
+  private int currType;         // its type ordinal
+  private int[] stack = new int[64];
+  private int top;
+
+  /**
+   * Creates a parser over the given token stream.
+   */
+  public TableParser(TokenBuffer tokens) {
+    this.tokens = tokens;
+  }
+
+  /**
+   * Parses the token stream. On error, throws a MyPLException.
+   */
+  public static void parse(TokenBuffer tokens) throws MyPLException {
+    new TableParser(tokens).parse();
+  }
+
+  /**
+   * Ensures the program is syntactically correct. On error, throws a
+   * MyPLException.
+   */
+  public void parse() throws MyPLException {
+    advance();
+    stack[top++] = FIRST_NT;          // the program
+    while (top > 0) {
+      int symbol = stack[--top];
+      if (symbol >= FIRST_NT)
+        expand(predict[(symbol - FIRST_NT) * TOKENS + currType]);
+      else if (symbol == PROGRESS) {
+        if (stack[--top] == index)
+          error("expecting statement");
+      }
+      else if (currType == expectedType[symbol])
+        advance();
+      else
+        error(expectedMessage[symbol]);
+    }
+  }
+
+
+  /* Helper Functions */
+
+  // replaces the nonterminal on top of the stack (already popped) by
+  // the right-hand side of the given production
+  private void expand(int p) {
+    if (top + 2 * maxRhs > stack.length)
+      stack = Arrays.copyOf(stack, stack.length * 2);
+    for (int i = rhsStart[p + 1] - 1; i >= rhsStart[p]; --i) {
+      if (rhs[i] == PROGRESS)
+        stack[top++] = index;
+      stack[top++] = rhs[i];
+    }
+  }
+
+  // moves to the next token, staying on the final EOS or reporting the
+  // error that ends the stream
+  private void advance() throws MyPLException {
+    if (index + 1 < tokens.size())
+      currType = tokens.type(++index).ordinal();
+    else if (tokens.error() != null)
+      throw tokens.error();
+  }
+
+  private void error(String errmsg) throws MyPLException {
+    throw new MyPLException("Parser", errmsg, tokens.line(index),
+                            tokens.column(index));
+  }
+
+
+  /* Grammar Analysis */
+
+  // the grammar table turned into numbered symbols, with FIRST sets
+  private static class Grammar {
+
+    final Map<String, Integer> nonterminals = new LinkedHashMap<>();
+    final List<String[]> expects = new ArrayList<>();   // type, message
+    final List<int[]> productions = new ArrayList<>();
+    final List<Integer> lhs = new ArrayList<>();
+    final List<String> lookaheads = new ArrayList<>();
+    long[] first;                   // by nonterminal
+    boolean[] nullable;
+
+    Grammar(String[][] rows) {
+      for (String[] row : rows)
+        if (!nonterminals.containsKey(row[0]))
+          nonterminals.put(row[0], nonterminals.size());
+      Map<String, Integer> expectIds = new HashMap<>();
+      for (String[] row : rows) {
+        int[] symbols = new int[row.length - 2];
+        for (int i = 2; i < row.length; ++i)
+          symbols[i - 2] = symbol(row[i], expectIds);
+        lhs.add(nonterminals.get(row[0]));
+        lookaheads.add(row[1]);
+        productions.add(symbols);
+      }
+      // the expect symbols are only numbered now, so the nonterminals
+      // (numbered after them) are offset afterwards
+      int firstNt = expects.size() + 1;
+      for (int[] symbols : productions)
+        for (int i = 0; i < symbols.length; ++i)
+          if (symbols[i] < 0)
+            symbols[i] = firstNt + ~symbols[i];
+      computeFirst(firstNt);
+    }
+
+    // the symbol for a grammar name; nonterminals are numbered ~id
+    // until the number of expect symbols is known
+    private int symbol(String name, Map<String, Integer> expectIds) {
+      if (name.equals("!"))
+        return PROGRESS;
+      Integer nt = nonterminals.get(name);
+      if (nt != null)
+        return ~nt;
+      if (!Character.isUpperCase(name.charAt(0)))
+        throw new IllegalStateException("undefined nonterminal " + name);
+      Integer id = expectIds.get(name);
+      if (id == null) {
+        int colon = name.indexOf(':');
+        String type = colon < 0 ? name : name.substring(0, colon);
+        String message = colon < 0 ? null : name.substring(colon + 1);
+        TokenType.valueOf(type);    // checks the name
+        expects.add(new String[] {type, message});
+        id = expects.size();
+        expectIds.put(name, id);
+      }
+      return id;
+    }
+
+    // computes the FIRST set and nullability of every nonterminal by
+    // iterating to a fixed point
+    private void computeFirst(int firstNt) {
+      int n = nonterminals.size();
+      first = new long[n];
+      nullable = new boolean[n];
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (int p = 0; p < productions.size(); ++p) {
+          int a = lhs.get(p);
+          long set = first(productions.get(p), firstNt);
+          boolean empty = derivesEmpty(productions.get(p), firstNt);
+          if ((first[a] | set) != first[a] || (empty && !nullable[a])) {
+            first[a] |= set;
+            nullable[a] |= empty;
+            changed = true;
+          }
+        }
+      }
+    }
+
+    // FIRST set of a right-hand side
+    private long first(int[] symbols, int firstNt) {
+      long set = 0;
+      for (int s : symbols) {
+        if (s == PROGRESS)
+          continue;
+        if (s < firstNt)
+          return set | bit(expects.get(s - 1)[0]);
+        set |= first[s - firstNt];
+        if (!nullable[s - firstNt])
+          return set;
+      }
+      return set;
+    }
+
+    private boolean derivesEmpty(int[] symbols, int firstNt) {
+      for (int s : symbols)
+        if (s != PROGRESS && (s < firstNt || !nullable[s - firstNt]))
+          return false;
+      return true;
+    }
+
+    // the table of the production to expand each nonterminal by for
+    // each next token; fails if two productions are taken on one token
+    int[] predictTable() {
+      int firstNt = expects.size() + 1;
+      int n = nonterminals.size();
+      int[] table = new int[n * TOKENS];
+      long[] taken = new long[n];
+      Arrays.fill(table, -1);
+      for (int p = 0; p < productions.size(); ++p) {
+        int a = lhs.get(p);
+        String on = lookaheads.get(p);
+        long set;
+        if (on.equals("else"))
+          continue;
+        else if (on.equals("first"))
+          set = first(productions.get(p), firstNt);
+        else {
+          set = 0;
+          for (String t : on.split(" "))
+            set |= bit(t);
+        }
+        if ((taken[a] & set) != 0)
+          throw new IllegalStateException("grammar is not LL(1) at "
+                                          + name(a));
+        taken[a] |= set;
+        for (int t = 0; t < TOKENS; ++t)
+          if ((set & 1L << t) != 0)
+            table[a * TOKENS + t] = p;
+      }
+      for (int p = 0; p < productions.size(); ++p) {
+        if (!lookaheads.get(p).equals("else"))
+          continue;
+        int a = lhs.get(p);
+        for (int t = 0; t < TOKENS; ++t)
+          if (table[a * TOKENS + t] < 0)
+            table[a * TOKENS + t] = p;
+      }
+      for (int a = 0; a < n; ++a)
+        for (int t = 0; t < TokenType.values().length; ++t)
+          if (table[a * TOKENS + t] < 0)
+            throw new IllegalStateException("no production of " + name(a)
+                                            + " for " + TokenType.values()[t]);
+      return table;
+    }
+
+    private String name(int nt) {
+      for (Map.Entry<String, Integer> e : nonterminals.entrySet())
+        if (e.getValue() == nt)
+          return e.getKey();
+      return null;
+    }
+
+    private static long bit(String type) {
+      return 1L << TokenType.valueOf(type).ordinal();
+    }
+  }
+}
@@ -5,16 +5,47 @@
  * Simple (immutable) container for token information. Token objects
  * are created by the Lexer and returned by Lexer's next_token()
  * function.
+ *
+ * Value tokens created by the Lexer refer to their lexeme as a slice
+ * of the lexer's source buffer, and the lexeme string is only built
+ * the first time lexeme() is called. INT_VAL and DOUBLE_VAL tokens
+ * from the Lexer also carry their decoded values; those of other
+ * number tokens are decoded, and checked, each time they are asked
+ * for.
  */
 
 
 public class Token {
 
   public Token(TokenType type, String lexeme, int row, int column) {
+    this(type, lexeme, row, column, -1);
+  }
+
+  public Token(TokenType type, String lexeme, int row, int column,
+               int symbol) {
     this.type = type;
     this.lexeme = lexeme;
     this.row = row;
     this.column = column;
+    this.symbol = symbol;
+  }
+
+  // a token whose lexeme is source[offset, offset + length)
+  Token(TokenType type, char[] source, int offset, int length, int row,
+        int column) {
+    this(type, null, row, column, -1);
+    this.source = source;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  // a number token whose lexeme is source[offset, offset + length),
+  // with its value (as raw bits if a double)
+  Token(TokenType type, char[] source, int offset, int length, int row,
+        int column, long value) {
+    this(type, source, offset, length, row, column);
+    this.value = value;
+    this.hasValue = true;
   }
 
   public TokenType type() {
@@ -22,9 +53,41 @@ public class Token {
   }
 
   public String lexeme() {
+    if (lexeme == null)
+      lexeme = new String(source, offset, length);
     return lexeme;
   }
 
+  // the lexeme as a view of the source buffer, without building the
+  // lexeme string
+  public CharSequence text() {
+    if (lexeme != null)
+      return lexeme;
+    return java.nio.CharBuffer.wrap(source, offset, length);
+  }
+
+  /**
+   * Returns the value of an INT_VAL token. Throws NumberFormatException
+   * if the token was not made by a lexer and its lexeme is not a
+   * number or does not fit in a long.
+   */
+  public long longValue() {
+    if (type != TokenType.INT_VAL)
+      throw new IllegalStateException("not an int value: " + this);
+    return hasValue ? value : decode();
+  }
+
+  /**
+   * Returns the value of a DOUBLE_VAL token. Throws NumberFormatException
+   * if the token was not made by a lexer and its lexeme is not a
+   * number.
+   */
+  public double doubleValue() {
+    if (type != TokenType.DOUBLE_VAL)
+      throw new IllegalStateException("not a double value: " + this);
+    return Double.longBitsToDouble(hasValue ? value : decode());
+  }
+
   public int row() {
     return row;
   }
@@ -33,13 +96,63 @@ public class Token {
     return column;
   }
 
+  // the identifier's id in the lexer's symbol table, or -1 if the
+  // token is not an identifier
+  public int symbol() {
+    return symbol;
+  }
+
+  // decodes the value of a number token from its lexeme (as raw bits
+  // if a double), which must be digits, with one '.' inside them if a
+  // double, and must fit in a long if an int
+  private long decode() {
+    char[] digits = lexeme != null ? lexeme.toCharArray()
+      : java.util.Arrays.copyOfRange(source, offset, offset + length);
+    if (!isNumber(digits, type == TokenType.DOUBLE_VAL))
+      throw new NumberFormatException("bad " + type + " lexeme '"
+                                      + new String(digits) + "'");
+    if (type == TokenType.INT_VAL) {
+      long value = 0;
+      try {
+        for (char c : digits)
+          value = Math.addExact(Math.multiplyExact(value, 10),
+                                Lexer.digitValue(c));
+      } catch (ArithmeticException e) {
+        throw new NumberFormatException("INT_VAL lexeme out of range '"
+                                        + new String(digits) + "'");
+      }
+      return value;
+    }
+    return Double.doubleToRawLongBits(
+      Lexer.decodeDouble(digits, 0, digits.length));
+  }
+
+  // true if the chars are digits (as the Lexer accepts them), or two
+  // runs of digits around a '.' if dot is set
+  private static boolean isNumber(char[] s, boolean dot) {
+    int dotAt = -1;
+    for (int i = 0; i < s.length; ++i) {
+      if (s[i] == '.' && dot && dotAt < 0)
+        dotAt = i;
+      else if (!Character.isDigit(s[i]))
+        return false;
+    }
+    return dot ? dotAt > 0 && dotAt < s.length - 1 : s.length > 0;
+  }
+
   @Override
   public String toString() {
-    return type + " '" + lexeme + "' " + row + ":" + column;
+    return type + " '" + lexeme() + "' " + row + ":" + column;
   }
     
   private TokenType type;       // the type of the token
   private String lexeme;        // the string value of the token
   private int row;              // row where token occurred
   private int column;           // column where token occured
+  private int symbol;           // symbol id of an identifier
+  private char[] source;        // buffer holding an unbuilt lexeme
+  private int offset;
+  private int length;
+  private long value;           // value of a number (raw bits if double)
+  private boolean hasValue;     // value was decoded by the lexer
 }
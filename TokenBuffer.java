@@ -0,0 +1,401 @@
+/**
+ * File: TokenBuffer.java
+ *
+ * The complete token stream of a source file stored as parallel
+ * primitive arrays (type ordinal, lexeme offset and length, line and
+ * column) instead of one Token object per token. Lexemes are only
+ * materialized as strings on request, from the retained source text.
+ *
+ * The buffer ends with the EOS token, or, if the source has a lexical
+ * error, with the tokens before the error plus the error itself. The
+ * Parser throws that error when it advances past the last token, so
+ * errors are reported in the same order as when parsing from a Lexer.
+ * Since the Parser advances once past EOS, the buffer also keeps an
+ * error the lexer reports right after the first EOS (e.g. after a
+ * stray '!').
+ *
+ * For in-place editing (see IncrementalParser), the arrays may hold a
+ * gap: tokens [0, gap) are stored at the front and the rest at the
+ * back, so tokens are inserted and removed at the gap without moving
+ * the others. The offsets and lines of the tokens after the gap are
+ * stored relative to a shift, so moving all of them by an edit costs
+ * one addition. The source text may hold a gap of unused characters
+ * too, which offsets skip over.
+ */
+
+import java.io.*;
+import java.util.Arrays;
+
+
+public class TokenBuffer {
+
+  private static final TokenType[] TYPES = TokenType.values();
+
+  // characters per token of typical MyPL source, for sizing buffers
+  static final int CHARS_PER_TOKEN = 3;
+
+  // tokens lexed before the capacity is extrapolated from the source
+  private static final int SAMPLE_TOKENS = 4096;
+
+  private char[] source;        // text the lexemes are stored in
+  private int sourceGap;        // unused chars of source: [sourceGap,
+  private int sourceGapLength;  //   sourceGap + sourceGapLength)
+  private boolean editable;     // source changes in place
+  private byte[] types;         // token type ordinals
+  private int[] starts;         // lexeme offsets into source
+  private int[] lengths;        // lexeme lengths (0 for fixed lexemes)
+  private int[] lines;
+  private int[] columns;
+  private int size;
+  private int gap;              // index of the first token after the gap
+  private int tail;             // where the tokens after the gap are stored
+  private int tailStart;        // shifts of the offsets and lines of the
+  private int tailLine;         //   tokens after the gap
+  private MyPLException error;  // lexical error following the tokens
+
+  TokenBuffer(char[] source, int capacity) {
+    this.source = source;
+    this.sourceGap = source.length;
+    capacity = Math.max(capacity, 16);
+    types = new byte[capacity];
+    starts = new int[capacity];
+    lengths = new int[capacity];
+    lines = new int[capacity];
+    columns = new int[capacity];
+    tail = capacity;
+  }
+
+  // a buffer of the first size tokens of the given one, sharing its
+  // arrays, that ends with the given error
+  private TokenBuffer(TokenBuffer tokens, int size, MyPLException error) {
+    this.source = tokens.source;
+    this.sourceGap = tokens.sourceGap;
+    this.sourceGapLength = tokens.sourceGapLength;
+    this.editable = tokens.editable;
+    this.types = tokens.types;
+    this.starts = tokens.starts;
+    this.lengths = tokens.lengths;
+    this.lines = tokens.lines;
+    this.columns = tokens.columns;
+    this.size = size;
+    this.gap = Math.min(tokens.gap, size);
+    this.tail = tokens.tail;
+    this.tailStart = tokens.tailStart;
+    this.tailLine = tokens.tailLine;
+    this.error = error;
+  }
+
+  /**
+   * Lexes the first length characters of the given array into a new
+   * token buffer.
+   */
+  public static TokenBuffer lex(char[] source, int length) {
+    int capacity = Math.min(length / CHARS_PER_TOKEN, SAMPLE_TOKENS);
+    TokenBuffer tokens = new TokenBuffer(source, capacity);
+    tokens.lexFrom(new Lexer(source, length));
+    tokens.trim();
+    return tokens;
+  }
+
+  /**
+   * Reads the given input stream to its end and lexes it into a new
+   * token buffer.
+   */
+  public static TokenBuffer read(InputStream instream) throws IOException {
+    return read(new InputStreamReader(instream));
+  }
+
+  /**
+   * Reads the given reader to its end and lexes it into a new token
+   * buffer.
+   */
+  public static TokenBuffer read(Reader reader) throws IOException {
+    char[] text = new char[8192];
+    int length = 0;
+    int n;
+    while ((n = reader.read(text, length, text.length - length)) > 0) {
+      length += n;
+      if (length == text.length)
+        text = Arrays.copyOf(text, text.length * 2);
+    }
+    return lex(text, length);
+  }
+
+  // appends the tokens of the given lexer through the first EOS, and
+  // records the error (if any) the lexer reports up to and right
+  // after that EOS
+  void lexFrom(Lexer lexer) {
+    int first = size;
+    int from = lexer.position();
+    try {
+      TokenType type;
+      do {
+        type = lexer.scan();
+        if (gap == tail)
+          grow(estimate(size - first, lexer.position() - from,
+                        lexer.limit() - lexer.position()));
+        add(type, lexer.tokenStart(), lexer.tokenLength(),
+            lexer.tokenLine(), lexer.tokenColumn());
+      } while (type != TokenType.EOS);
+      lexer.scan();
+    } catch (MyPLException e) {
+      error = e;
+    }
+  }
+
+  // inserts a token at the gap (appends it, unless the buffer has been
+  // edited), growing the arrays as needed
+  void add(TokenType type, int start, int length, int line, int column) {
+    if (gap == tail)
+      grow();
+    types[gap] = (byte)type.ordinal();
+    starts[gap] = start;
+    lengths[gap] = length;
+    lines[gap] = line;
+    columns[gap] = column;
+    ++gap;
+    ++size;
+  }
+
+  // capacity for the tokens of the rest of a source, extrapolated from
+  // the count tokens lexed from its first consumed characters
+  private int estimate(int count, int consumed, int remaining) {
+    long rest = (long)count * remaining / Math.max(consumed, 1);
+    long capacity = size + rest + rest / 8 + 16;
+    return (int)Math.min(capacity, Integer.MAX_VALUE - 8);
+  }
+
+  // doubles the arrays, keeping the tokens after the gap at the back
+  private void grow() {
+    grow(types.length * 2);
+  }
+
+  // grows the arrays to the given capacity, keeping the tokens after
+  // the gap at the back
+  private void grow(int capacity) {
+    int newTail = capacity - (size - gap);
+    types = (byte[])regap(types, new byte[capacity], newTail);
+    starts = (int[])regap(starts, new int[capacity], newTail);
+    lengths = (int[])regap(lengths, new int[capacity], newTail);
+    lines = (int[])regap(lines, new int[capacity], newTail);
+    columns = (int[])regap(columns, new int[capacity], newTail);
+    tail = newTail;
+  }
+
+  // copies the tokens of an array into the larger array to, with the
+  // tokens after the gap stored from newTail on
+  private Object regap(Object from, Object to, int newTail) {
+    System.arraycopy(from, 0, to, 0, gap);
+    System.arraycopy(from, tail, to, newTail, size - gap);
+    return to;
+  }
+
+  // inserts tokens [from, to) of the given buffer at the gap, shifting
+  // their lines
+  void append(TokenBuffer part, int from, int to, int lineOffset) {
+    for (int i = from; i < to; ++i)
+      add(part.type(i), part.start(i), part.length(i),
+          part.line(i) + lineOffset, part.column(i));
+  }
+
+  // moves the gap to before the i-th token, which costs a copy of the
+  // tokens in between
+  void moveGap(int i) {
+    if (i < gap) {
+      int n = gap - i;
+      tail -= n;
+      move(i, tail, n, -tailStart, -tailLine);
+      gap = i;
+    }
+    else if (i > gap) {
+      int n = i - gap;
+      move(tail, gap, n, tailStart, tailLine);
+      tail += n;
+      gap = i;
+    }
+  }
+
+  // copies n tokens between the front and the back of the arrays,
+  // adjusting their stored offsets and lines by the given shifts
+  private void move(int from, int to, int n, int startShift, int lineShift) {
+    System.arraycopy(types, from, types, to, n);
+    System.arraycopy(starts, from, starts, to, n);
+    System.arraycopy(lengths, from, lengths, to, n);
+    System.arraycopy(lines, from, lines, to, n);
+    System.arraycopy(columns, from, columns, to, n);
+    for (int k = to; k < to + n; ++k) {
+      starts[k] += startShift;
+      lines[k] += lineShift;
+    }
+  }
+
+  // removes the given number of tokens after the gap
+  void removeAfterGap(int count) {
+    tail += count;
+    size -= count;
+  }
+
+  // moves the tokens after the gap by the given number of characters
+  // and lines
+  void shiftAfterGap(int offsetDelta, int lineDelta) {
+    tailStart += offsetDelta;
+    tailLine += lineDelta;
+  }
+
+  // makes the lexemes refer to the given source, whose characters
+  // [gap, gap + gapLength) are unused; no lexeme may span the gap, and
+  // since the source is edited in place, tokens copy their lexemes
+  void setSource(char[] source, int gap, int gapLength) {
+    this.source = source;
+    this.sourceGap = gap;
+    this.sourceGapLength = gapLength;
+    this.editable = true;
+  }
+
+  // the first size tokens of this buffer followed by the given error;
+  // the arrays are shared, so the prefix is only valid until this
+  // buffer next changes
+  TokenBuffer prefix(int size, MyPLException error) {
+    return new TokenBuffer(this, size, error);
+  }
+
+  // index of the first token whose lexeme starts at or after the given
+  // offset (size() if there is none)
+  int indexAt(int offset) {
+    int lo = 0;
+    int hi = size;
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if (start(mid) < offset)
+        lo = mid + 1;
+      else
+        hi = mid;
+    }
+    return lo;
+  }
+
+  void setError(MyPLException error) {
+    this.error = error;
+  }
+
+  // shrinks the arrays to the number of tokens if they waste more than
+  // an eighth of their size, which costs a copy; the buffer must not
+  // have been edited
+  void trim() {
+    if (types.length - size <= size / 8)
+      return;
+    types = Arrays.copyOf(types, size);
+    starts = Arrays.copyOf(starts, size);
+    lengths = Arrays.copyOf(lengths, size);
+    lines = Arrays.copyOf(lines, size);
+    columns = Arrays.copyOf(columns, size);
+    tail = size;
+  }
+
+  /**
+   * Returns the number of tokens in the buffer.
+   */
+  public int size() {
+    return size;
+  }
+
+  public TokenType type(int i) {
+    return TYPES[types[i < gap ? i : i - gap + tail]];
+  }
+
+  public int start(int i) {
+    return i < gap ? starts[i] : starts[i - gap + tail] + tailStart;
+  }
+
+  public int length(int i) {
+    return lengths[i < gap ? i : i - gap + tail];
+  }
+
+  public int line(int i) {
+    return i < gap ? lines[i] : lines[i - gap + tail] + tailLine;
+  }
+
+  public int column(int i) {
+    return columns[i < gap ? i : i - gap + tail];
+  }
+
+  /**
+   * Returns the lexeme of the i-th token.
+   */
+  public String lexeme(int i) {
+    String fixed = Lexer.fixedLexeme(type(i));
+    if (fixed != null)
+      return fixed;
+    return new String(source, sourceIndex(start(i)), length(i));
+  }
+
+  /**
+   * Returns the value of the i-th token, which must be an INT_VAL.
+   */
+  public long longValue(int i) {
+    if (type(i) != TokenType.INT_VAL)
+      throw new IllegalStateException("not an int value: " + token(i));
+    return Lexer.decodeLong(source, sourceIndex(start(i)), length(i));
+  }
+
+  /**
+   * Returns the value of the i-th token, which must be a DOUBLE_VAL.
+   */
+  public double doubleValue(int i) {
+    if (type(i) != TokenType.DOUBLE_VAL)
+      throw new IllegalStateException("not a double value: " + token(i));
+    return Lexer.decodeDouble(source, sourceIndex(start(i)), length(i));
+  }
+
+  /**
+   * Returns the i-th token as a Token object.
+   */
+  public Token token(int i) {
+    TokenType type = type(i);
+    String fixed = Lexer.fixedLexeme(type);
+    if (fixed != null)
+      return new Token(type, fixed, line(i), column(i));
+    char[] text = source;
+    int at = sourceIndex(start(i));
+    if (editable) {
+      text = Arrays.copyOfRange(source, at, at + length(i));
+      at = 0;
+    }
+    if (type == TokenType.INT_VAL)
+      return new Token(type, text, at, length(i), line(i), column(i),
+                       longValue(i));
+    if (type == TokenType.DOUBLE_VAL)
+      return new Token(type, text, at, length(i), line(i), column(i),
+                       Double.doubleToRawLongBits(doubleValue(i)));
+    return new Token(type, text, at, length(i), line(i), column(i));
+  }
+
+  /**
+   * Returns the lexical error that follows the last token, or null if
+   * the source has no lexical error before or right after its EOS.
+   */
+  public MyPLException error() {
+    return error;
+  }
+
+  /**
+   * Returns the source text the lexemes are stored in (which has a gap
+   * of unused characters if the buffer has been edited in place).
+   */
+  public char[] source() {
+    return source;
+  }
+
+  // copies source text [0, length) to the given buffer, leaving out
+  // the source's gap
+  void getSource(int length, java.nio.CharBuffer out) {
+    int head = Math.min(length, sourceGap);
+    out.put(source, 0, head);
+    out.put(source, sourceGap + sourceGapLength, length - head);
+  }
+
+  // index in source of the lexeme starting at the given offset
+  private int sourceIndex(int start) {
+    return start < sourceGap ? start : start + sourceGapLength;
+  }
+}